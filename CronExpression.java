@@ -0,0 +1,298 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * cron表达式
+ *
+ * 支持5个字段（分 时 日 月 周）或者6个字段（秒 分 时 日 月 周），以及@yearly @monthly @weekly @daily @hourly
+ * 每个字段支持 * ? , - / ，月份和星期可以用英文缩写，星期的0和7都表示周日
+ * 日和周都不以*开头时，满足其中一个即可，与crontab相同
+ *
+ * 按指定的时区计算，夏令时切换时：
+ * 跳过的本地时间顺延到切换之后，例如2:30在3:30触发，同一时刻只触发一次
+ * 重复的本地时间只在第一次出现时触发；小时字段以*开头时，两次出现都触发
+ *
+ * 不可变，线程安全
+ */
+public class CronExpression {
+
+    //日期只在这么多年内查找，例如2月30日永远不会触发
+    private static final int MAX_SEARCH_YEARS = 10;
+
+    private static final String[] MONTH_NAMES = {null, "JAN", "FEB", "MAR", "APR", "MAY", "JUN",
+            "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] DAY_NAMES = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+
+    private final String expression;
+    private final ZoneId zone;
+
+    //每个字段取值的位图
+    private final long seconds;
+    private final long minutes;
+    private final long hours;
+    private final long daysOfMonth;
+    private final long months;
+    private final long daysOfWeek;
+
+    private final boolean dayOfMonthStar;
+    private final boolean dayOfWeekStar;
+    private final boolean hourStar;
+
+    public CronExpression(String expression) {
+        this(expression, ZoneId.systemDefault());
+    }
+
+    public CronExpression(String expression, TimeZone timeZone) {
+        this(expression, timeZone.toZoneId());
+    }
+
+    /**
+     * @param expression
+     * @param zone
+     * @throws IllegalArgumentException 表达式不合法
+     */
+    public CronExpression(String expression, ZoneId zone) {
+        this.expression = expression;
+        this.zone = zone;
+
+        String[] fields = expand(expression.trim()).split("\\s+");
+        if (fields.length != 5 && fields.length != 6) {
+            throw new IllegalArgumentException("cron expression must have 5 or 6 fields: " + expression);
+        }
+        int i = 0;
+        this.seconds = fields.length == 6 ? parseField(fields[i++], 0, 59, null) : 1L;
+        this.minutes = parseField(fields[i++], 0, 59, null);
+        this.hourStar = isStar(fields[i]);
+        this.hours = parseField(fields[i++], 0, 23, null);
+        this.dayOfMonthStar = isStar(fields[i]);
+        this.daysOfMonth = parseField(fields[i++], 1, 31, null);
+        this.months = parseField(fields[i++], 1, 12, MONTH_NAMES);
+        this.dayOfWeekStar = isStar(fields[i]);
+        long dow = parseField(fields[i], 0, 7, DAY_NAMES);
+        //7也表示周日
+        this.daysOfWeek = (dow | (dow >>> 7)) & 0x7F;
+    }
+
+    /**
+     * @param after
+     * @return 严格晚于after的下一个触发时间，没有时返回null
+     */
+    public ZonedDateTime next(ZonedDateTime after) {
+        ZonedDateTime from = after.withZoneSameInstant(zone);
+        ZonedDateTime result = search(from.toLocalDateTime().withNano(0).plusSeconds(1), from);
+
+        //小时字段以*开头时，重复的本地时间第二次出现时也要触发
+        if (hourStar) {
+            ZoneOffsetTransition transition = zone.getRules().nextTransition(from.toInstant());
+            if (transition != null && transition.isOverlap()
+                    && (result == null || !transition.getInstant().isAfter(result.toInstant()))) {
+                ZonedDateTime repeated = search(transition.getDateTimeAfter(), from);
+                if (repeated != null && (result == null || repeated.isBefore(result))) {
+                    result = repeated;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param afterMillis
+     * @return 严格晚于afterMillis的下一个触发时间，没有时返回-1
+     */
+    public long nextFireTime(long afterMillis) {
+        ZonedDateTime next = next(Instant.ofEpochMilli(afterMillis).atZone(zone));
+        return next == null ? -1 : next.toInstant().toEpochMilli();
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * 从本地时间start（包含）开始查找第一个匹配并且晚于after的时刻
+     */
+    private ZonedDateTime search(LocalDateTime start, ZonedDateTime after) {
+        LocalDateTime t = start;
+        int maxYear = t.getYear() + MAX_SEARCH_YEARS;
+        while (t.getYear() <= maxYear) {
+            if (!contains(months, t.getMonthValue())) {
+                t = t.toLocalDate().withDayOfMonth(1).plusMonths(1).atStartOfDay();
+                continue;
+            }
+            if (!matchesDay(t)) {
+                t = t.toLocalDate().plusDays(1).atStartOfDay();
+                continue;
+            }
+            int hour = nextBit(hours, t.getHour());
+            if (hour < 0) {
+                t = t.toLocalDate().plusDays(1).atStartOfDay();
+                continue;
+            }
+            if (hour != t.getHour()) {
+                t = t.withHour(hour).withMinute(0).withSecond(0);
+            }
+            int minute = nextBit(minutes, t.getMinute());
+            if (minute < 0) {
+                t = t.withMinute(0).withSecond(0).plusHours(1);
+                continue;
+            }
+            if (minute != t.getMinute()) {
+                t = t.withMinute(minute).withSecond(0);
+            }
+            int second = nextBit(seconds, t.getSecond());
+            if (second < 0) {
+                t = t.withSecond(0).plusMinutes(1);
+                continue;
+            }
+            t = t.withSecond(second);
+
+            ZonedDateTime candidate = resolve(t, after);
+            if (candidate != null) {
+                return candidate;
+            }
+            t = t.plusSeconds(1);
+        }
+        return null;
+    }
+
+    /**
+     * 把匹配的本地时间转换为时刻
+     *
+     * @return 不晚于after时返回null
+     */
+    private ZonedDateTime resolve(LocalDateTime local, ZonedDateTime after) {
+        ZoneRules rules = zone.getRules();
+        List<ZoneOffset> offsets = rules.getValidOffsets(local);
+        if (offsets.isEmpty()) {
+            //夏令时跳过的本地时间，顺延gap的长度
+            ZonedDateTime shifted = ZonedDateTime.ofLocal(local, zone, null);
+            return shifted.isAfter(after) ? shifted : null;
+        }
+
+        ZonedDateTime first = ZonedDateTime.ofStrict(local, offsets.get(0), zone);
+        if (first.isAfter(after)) {
+            return first;
+        }
+        if (offsets.size() > 1 && hourStar) {
+            ZonedDateTime second = ZonedDateTime.ofStrict(local, offsets.get(1), zone);
+            if (second.isAfter(after)) {
+                return second;
+            }
+        }
+        return null;
+    }
+
+    private boolean matchesDay(LocalDateTime t) {
+        boolean dom = contains(daysOfMonth, t.getDayOfMonth());
+        boolean dow = contains(daysOfWeek, t.getDayOfWeek().getValue() % 7);
+        if (dayOfMonthStar || dayOfWeekStar) {
+            return dom && dow;
+        }
+        return dom || dow;
+    }
+
+    private static boolean contains(long mask, int value) {
+        return (mask & (1L << value)) != 0;
+    }
+
+    /**
+     * @return 不小于from的第一个取值，没有时返回-1
+     */
+    private static int nextBit(long mask, int from) {
+        long m = mask & (-1L << from);
+        return m == 0 ? -1 : Long.numberOfTrailingZeros(m);
+    }
+
+    private static boolean isStar(String field) {
+        return field.startsWith("*") || field.startsWith("?");
+    }
+
+    private static String expand(String expression) {
+        String lower = expression.toLowerCase(Locale.ROOT);
+        if ("@yearly".equals(lower) || "@annually".equals(lower)) {
+            return "0 0 1 1 *";
+        } else if ("@monthly".equals(lower)) {
+            return "0 0 1 * *";
+        } else if ("@weekly".equals(lower)) {
+            return "0 0 * * 0";
+        } else if ("@daily".equals(lower) || "@midnight".equals(lower)) {
+            return "0 0 * * *";
+        } else if ("@hourly".equals(lower)) {
+            return "0 * * * *";
+        }
+        return expression;
+    }
+
+    private static long parseField(String field, int min, int max, String[] names) {
+        long mask = 0;
+        for (String part : field.split(",")) {
+            String range = part;
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = parseNumber(part.substring(slash + 1), field);
+                range = part.substring(0, slash);
+                if (step <= 0) {
+                    throw new IllegalArgumentException("invalid step in cron field: " + field);
+                }
+            }
+
+            int from;
+            int to;
+            if ("*".equals(range) || "?".equals(range)) {
+                from = min;
+                to = max;
+            } else {
+                int dash = range.indexOf('-', 1);
+                if (dash > 0) {
+                    from = parseValue(range.substring(0, dash), names, field);
+                    to = parseValue(range.substring(dash + 1), names, field);
+                } else {
+                    from = parseValue(range, names, field);
+                    //a/n 表示从a到最大值
+                    to = slash >= 0 ? max : from;
+                }
+            }
+            if (from < min || to > max || from > to) {
+                throw new IllegalArgumentException("value out of range [" + min + ", " + max + "] in cron field: " + field);
+            }
+
+            for (int i = from; i <= to; i += step) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
+    }
+
+    private static int parseValue(String value, String[] names, String field) {
+        if (names != null) {
+            for (int i = 0; i < names.length; i++) {
+                if (value.equalsIgnoreCase(names[i])) {
+                    return i;
+                }
+            }
+        }
+        return parseNumber(value, field);
+    }
+
+    private static int parseNumber(String value, String field) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid value '" + value + "' in cron field: " + field, e);
+        }
+    }
+}
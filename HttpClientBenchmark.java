@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HttpClientUtil的基准测试
+ *
+ * 请求发往本机内嵌的HttpServer，不依赖网络
+ * 对比同步send、流式download、异步sendAsync和批量sendAll在不同响应大小、每个route最大连接数、并发线程数下的吞吐和延迟
+ * 每个组合先预热再测量，延迟用LatencyHistogram统计
+ * 失败的请求（返回null、-1或者异常）单独计数，不计入吞吐和延迟；吞吐按实际测量耗时计算
+ *
+ * 运行：java -cp ... HttpClientBenchmark [warmupSeconds] [measureSeconds]
+ */
+public class HttpClientBenchmark {
+
+    private static final int[] BODY_SIZES = {1024, 64 * 1024, 1024 * 1024};
+    private static final int[] MAX_PER_ROUTES = {2, 16, 64};
+    private static final int[] THREAD_COUNTS = {1, 16, 64};
+
+    private static final int BATCH_SIZE = 32;
+    private static final int SERVER_THREADS = 128;
+
+    private static final int DEFAULT_WARMUP_SECONDS = 3;
+    private static final int DEFAULT_MEASURE_SECONDS = 10;
+
+    private static final String RESULT_FORMAT = "%-18s %8s %12s %8s %12s %8s %10s %10s %10s %10s%n";
+
+    public static void main(String[] args) throws Exception {
+        int warmupSeconds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_WARMUP_SECONDS;
+        int measureSeconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MEASURE_SECONDS;
+        //关闭Nagle，否则响应头和响应体分开发送时会被delayed ACK拖慢约40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        System.out.printf(RESULT_FORMAT, "mode", "body", "maxPerRoute", "threads",
+                "ops/s", "errors", "mean(us)", "p50(us)", "p99(us)", "max(us)");
+        for (int bodySize : BODY_SIZES) {
+            StubServer server = new StubServer(bodySize);
+            try {
+                for (int maxPerRoute : MAX_PER_ROUTES) {
+                    //每个组合使用新的端口，即新的route
+                    String url = server.newRoute(maxPerRoute);
+                    for (int threads : THREAD_COUNTS) {
+                        for (Mode mode : Mode.values()) {
+                            run(mode, url, maxPerRoute, threads, warmupSeconds);
+                            Result result = run(mode, url, maxPerRoute, threads, measureSeconds);
+                            System.out.printf(RESULT_FORMAT, mode, bodySize, maxPerRoute, threads,
+                                    String.format("%.1f", result.ops.get() * 1e9 / result.elapsedNanos),
+                                    result.errors.get(),
+                                    String.format("%.0f", result.latency.getMean()),
+                                    result.latency.getPercentile(50),
+                                    result.latency.getPercentile(99),
+                                    result.latency.getMax());
+                        }
+                    }
+                }
+            } finally {
+                server.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static Result run(final Mode mode, final String url, final int maxPerRoute,
+                              int threads, int seconds) throws InterruptedException {
+        final Result result = new Result();
+        final long begin = System.nanoTime();
+        final long deadline = begin + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            long start = System.nanoTime();
+                            int ops = mode.execute(url, maxPerRoute);
+                            long elapsed = System.nanoTime() - start;
+                            result.ops.addAndGet(ops);
+                            //有失败的调用不计入延迟，避免快速失败拉低延迟
+                            if (ops == mode.requestsPerCall()) {
+                                result.latency.record(TimeUnit.NANOSECONDS.toMicros(elapsed));
+                            } else {
+                                result.errors.addAndGet(mode.requestsPerCall() - ops);
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "benchmark-" + mode + "-" + i);
+            t.start();
+        }
+        done.await();
+        result.elapsedNanos = System.nanoTime() - begin;
+        return result;
+    }
+
+    private enum Mode {
+        BLOCKING_SEND {
+            @Override
+            int execute(String url, int maxPerRoute) {
+                return HttpClientUtil.send(new HttpGet(url)) != null ? 1 : 0;
+            }
+        },
+        STREAMING_DOWNLOAD {
+            @Override
+            int execute(String url, int maxPerRoute) {
+                return HttpClientUtil.download(new HttpGet(url), DiscardChannel.INSTANCE) >= 0 ? 1 : 0;
+            }
+        },
+        ASYNC_SEND {
+            @Override
+            int execute(String url, int maxPerRoute) {
+                try {
+                    return HttpClientUtil.sendAsync(new HttpGet(url)).join() != null ? 1 : 0;
+                } catch (CompletionException e) {
+                    return 0;
+                }
+            }
+        },
+        BATCH_SEND_ALL {
+            @Override
+            int execute(String url, int maxPerRoute) {
+                List<HttpUriRequest> requests = new ArrayList<HttpUriRequest>(BATCH_SIZE);
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    requests.add(new HttpGet(url));
+                }
+                int ok = 0;
+                for (String body : HttpClientUtil.sendAll(requests, maxPerRoute)) {
+                    if (body != null) {
+                        ok++;
+                    }
+                }
+                return ok;
+            }
+
+            @Override
+            int requestsPerCall() {
+                return BATCH_SIZE;
+            }
+        };
+
+        /**
+         * @return 成功的请求数
+         */
+        abstract int execute(String url, int maxPerRoute);
+
+        /**
+         * @return 每次execute发出的请求数
+         */
+        int requestsPerCall() {
+            return 1;
+        }
+    }
+
+    private static class Result {
+        private final AtomicLong ops = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long elapsedNanos;
+    }
+
+    /**
+     * 返回固定大小响应体的本地HttpServer
+     */
+    private static class StubServer {
+
+        private final HttpHandler handler;
+        private final ExecutorService executor = Executors.newFixedThreadPool(SERVER_THREADS);
+        private final List<HttpServer> servers = new ArrayList<HttpServer>();
+
+        StubServer(int bodySize) {
+            final byte[] body = new byte[bodySize];
+            new Random(0).nextBytes(body);
+            this.handler = new HttpHandler() {
+
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+            };
+        }
+
+        String newRoute(int maxPerRoute) throws IOException {
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+            server.createContext("/", handler);
+            server.setExecutor(executor);
+            server.start();
+            servers.add(server);
+
+            HttpHost host = new HttpHost("127.0.0.1", server.getAddress().getPort());
+            HttpClientUtil.customize(host, maxPerRoute);
+            HttpClientUtil.customizeAsync(host, maxPerRoute);
+            return host.toURI() + "/";
+        }
+
+        void stop() {
+            for (HttpServer server : servers) {
+                server.stop(0);
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 丢弃写入的数据，只测量读取的开销
+     */
+    private static class DiscardChannel implements WritableByteChannel {
+
+        private static final DiscardChannel INSTANCE = new DiscardChannel();
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,21 +1,81 @@
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.Consts;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.config.ConnectionConfig;
 import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.UnsupportedSchemeException;
 import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
 import org.apache.http.util.EntityUtils;
 
 /**
@@ -27,7 +87,7 @@ public class HttpClientUtil {
 	
 	private static final Log LOG = LogFactory.getLog(HttpClientUtil.class);
 
-	private static final PoolingHttpClientConnectionManager CONN_MGR;
+	private static final InstrumentedConnectionManager CONN_MGR;
 	private static final CloseableHttpClient HTTP_CLIENT;
 	
 	private static final SocketConfig DEFAULT_SOCKET_CONFIG;
@@ -43,6 +103,44 @@ public class HttpClientUtil {
     private static final int DEFAULT_MAX_TOTAL = 512;
     private static final int DEFAULT_MAX_PER_ROUTE = 2;
 
+    private static final int DEFAULT_ASYNC_BUFFER_SIZE = 8 * 1024;
+    private static final int DEFAULT_ASYNC_CONNECTION_REQUEST_TIMEOUT = 10 * 1000;
+    private static final int DEFAULT_ASYNC_MAX_TOTAL = 2048;
+    private static final int DEFAULT_ASYNC_MAX_PER_ROUTE = 64;
+
+    private static final int DEFAULT_BATCH_CONCURRENCY = 64;
+    private static final int HEDGE_MIN_SAMPLES = 100;
+    private static final long HEDGE_MIN_DELAY_MICROS = 1000;
+    private static final long RECENT_LATENCY_WINDOW = 60 * 1000;
+
+    //host -> 最近一段时间异步请求的耗时，用于计算对冲请求的等待时间
+    private static final ConcurrentMap<HttpHost, RecentLatency> RECENT_LATENCY =
+            new ConcurrentHashMap<HttpHost, RecentLatency>();
+
+    private static final int DEFAULT_STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS_PER_SIZE = 64;
+
+    //host -> 流式读取时使用的缓冲区大小
+    private static final ConcurrentMap<HttpHost, Integer> STREAM_BUFFER_SIZES =
+            new ConcurrentHashMap<HttpHost, Integer>();
+    //缓冲区大小 -> 空闲缓冲区
+    private static final ConcurrentMap<Integer, BlockingQueue<ByteBuffer>> BUFFER_POOL =
+            new ConcurrentHashMap<Integer, BlockingQueue<ByteBuffer>>();
+
+    private static final long DEFAULT_ADAPTIVE_INTERVAL = 5 * 1000;
+    private static final long ADAPTIVE_LEASE_WAIT_THRESHOLD = 50;
+    private static final int ADAPTIVE_SHRINK_ROUNDS = 12;
+    private static final long ADAPTIVE_IDLE_TIMEOUT = 60 * 1000;
+
+    //route超过这个时间没有请求并且没有在用的连接时，回收其统计和MBean
+    private static final long ROUTE_METRICS_IDLE_TIMEOUT = 10 * 60 * 1000;
+    private static final long ROUTE_METRICS_EVICT_INTERVAL = 60 * 1000;
+
+    //通过customize手动设置的最大连接数，自适应调整不会低于该值
+    private static final ConcurrentMap<HttpRoute, Integer> CUSTOMIZED_MAX_PER_ROUTE =
+            new ConcurrentHashMap<HttpRoute, Integer>();
+    private static ScheduledExecutorService adaptivePoolService;
+
 	static {
 
 		DEFAULT_SOCKET_CONFIG = SocketConfig.DEFAULT;
@@ -60,17 +158,28 @@ public class HttpClientUtil {
 				.setSocketTimeout(DEFAULT_SOCKET_TIMEOUT)
 				.build();
 
-		CONN_MGR = new PoolingHttpClientConnectionManager();
+		CONN_MGR = new InstrumentedConnectionManager();
 		CONN_MGR.setMaxTotal(DEFAULT_MAX_TOTAL);
 		CONN_MGR.setDefaultMaxPerRoute(DEFAULT_MAX_PER_ROUTE);
 		CONN_MGR.setDefaultConnectionConfig(DEFAULT_CONN_CONFIG);
 		CONN_MGR.setDefaultSocketConfig(DEFAULT_SOCKET_CONFIG);
 
-		HTTP_CLIENT = HttpClients
-				.custom()
+		HTTP_CLIENT = new LeaseTimeoutRecordingBuilder()
 				.setConnectionManager(CONN_MGR)
+				.setRequestExecutor(new InstrumentedRequestExecutor())
 				.setDefaultRequestConfig(DEFAULT_REQ_CONFIG)
 				.build();
+
+		registerMBean(new PoolMetrics(), "HttpClientUtil:type=Pool");
+
+		Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("http-route-metrics-evictor"))
+				.scheduleWithFixedDelay(new Runnable() {
+
+					@Override
+					public void run() {
+						CONN_MGR.evictIdleRouteMetrics();
+					}
+				}, ROUTE_METRICS_EVICT_INTERVAL, ROUTE_METRICS_EVICT_INTERVAL, TimeUnit.MILLISECONDS);
 	}
 	
 	private HttpClientUtil() {}
@@ -90,7 +199,9 @@ public class HttpClientUtil {
 		}
 
 		if (maxConnection > 0) {
-			CONN_MGR.setMaxPerRoute(new HttpRoute(host), maxConnection);
+			HttpRoute route = new HttpRoute(host);
+			CONN_MGR.setMaxPerRoute(route, maxConnection);
+			CUSTOMIZED_MAX_PER_ROUTE.put(route, maxConnection);
 		}
 
 		if (sc != null) {
@@ -111,6 +222,130 @@ public class HttpClientUtil {
 		customize(host, maxConnection, null, null);
 	}
 	
+	/**
+	 * 开启连接池自适应调整
+	 * 
+	 * @see #enableAdaptivePool(long)
+	 */
+	public static void enableAdaptivePool() {
+		enableAdaptivePool(DEFAULT_ADAPTIVE_INTERVAL);
+	}
+
+	/**
+	 * 开启连接池自适应调整
+	 * 每个周期根据各route的等待数、lease等待时间和超时次数，在DEFAULT_MAX_TOTAL范围内调大或调小最大连接数，
+	 * 同时清理过期和空闲的连接
+	 * 
+	 * @param intervalMillis 调整周期
+	 */
+	public static synchronized void enableAdaptivePool(long intervalMillis) {
+		if (adaptivePoolService != null) {
+			return;
+		}
+		adaptivePoolService = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("http-pool-adaptive"));
+		adaptivePoolService.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				adjustPool();
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		LOG.info("[HttpClient] adaptive pool enabled [interval:" + intervalMillis + "ms]");
+	}
+
+	/**
+	 * 关闭连接池自适应调整，已调整的最大连接数保持不变
+	 */
+	public static synchronized void disableAdaptivePool() {
+		if (adaptivePoolService == null) {
+			return;
+		}
+		adaptivePoolService.shutdownNow();
+		adaptivePoolService = null;
+		LOG.info("[HttpClient] adaptive pool disabled");
+	}
+
+	private static void adjustPool() {
+		try {
+			CONN_MGR.closeExpiredConnections();
+			CONN_MGR.closeIdleConnections(ADAPTIVE_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+
+			Set<HttpRoute> routes = CONN_MGR.getRoutes();
+			int allocated = 0;
+			for (HttpRoute route : routes) {
+				allocated += CONN_MGR.getMaxPerRoute(route);
+			}
+			int budget = CONN_MGR.getMaxTotal();
+
+			for (HttpRoute route : routes) {
+				PoolStats stats = CONN_MGR.getStats(route);
+				int max = stats.getMax();
+				Integer customized = CUSTOMIZED_MAX_PER_ROUTE.get(route);
+				int floor = customized == null ? DEFAULT_MAX_PER_ROUTE : customized;
+
+				RouteMetrics metrics = CONN_MGR.peekRouteMetrics(route);
+				if (metrics == null) {
+					//长时间没有请求，统计已经回收，直接恢复到下限
+					if (max > floor) {
+						CONN_MGR.setMaxPerRoute(route, floor);
+						allocated -= max - floor;
+						LOG.info("[HttpClient] shrink idle maxPerRoute [route:" + route + ", " + max + " -> " + floor + "]");
+					}
+					continue;
+				}
+				long leases = metrics.windowLeases.getAndSet(0);
+				long waitNanos = metrics.windowLeaseNanos.getAndSet(0);
+				long timeouts = metrics.windowLeaseTimeouts.getAndSet(0);
+				long avgWait = leases == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos / leases);
+
+				if (stats.getPending() > 0 || timeouts > 0 || avgWait >= ADAPTIVE_LEASE_WAIT_THRESHOLD) {
+					metrics.idleRounds = 0;
+					int target = Math.min(max * 2, max + budget - allocated);
+					if (target > max) {
+						CONN_MGR.setMaxPerRoute(route, target);
+						allocated += target - max;
+						LOG.info("[HttpClient] grow maxPerRoute [route:" + route + ", " + max + " -> " + target
+								+ ", pending:" + stats.getPending() + ", avgLeaseWait:" + avgWait + "ms, timeouts:" + timeouts + "]");
+					}
+				} else if (max > floor && stats.getLeased() <= max / 4) {
+					if (++metrics.idleRounds >= ADAPTIVE_SHRINK_ROUNDS) {
+						metrics.idleRounds = 0;
+						int target = Math.max(floor, max / 2);
+						CONN_MGR.setMaxPerRoute(route, target);
+						allocated -= max - target;
+						LOG.info("[HttpClient] shrink maxPerRoute [route:" + route + ", " + max + " -> " + target
+								+ ", leased:" + stats.getLeased() + "]");
+					}
+				} else {
+					metrics.idleRounds = 0;
+				}
+			}
+		} catch (Exception e) {
+			LOG.error("[HttpClient] adjust pool failed", e);
+		}
+	}
+
+	/**
+	 * 针对不同的host，自定义连接缓冲区和流式读取缓冲区大小
+	 * 替代默认的1MB连接缓冲区，只对新建的连接生效
+	 * 
+	 * @param host
+	 * @param bufferSize
+	 */
+	public static void customizeBufferSize(HttpHost host, int bufferSize) {
+		if (host == null || bufferSize <= 0) {
+			return;
+		}
+		host = withDefaultPort(host);
+
+		ConnectionConfig cc = CONN_MGR.getConnectionConfig(host);
+		if (cc == null) {
+			cc = DEFAULT_CONN_CONFIG;
+		}
+		CONN_MGR.setConnectionConfig(host, ConnectionConfig.copy(cc).setBufferSize(bufferSize).build());
+		STREAM_BUFFER_SIZES.put(host, bufferSize);
+	}
+
 	/**
 	 * 发送Http请求
 	 * StatusCode==200时，返回Entity字符串
@@ -122,9 +357,13 @@ public class HttpClientUtil {
 	public static String send(HttpUriRequest request) {
 		CloseableHttpResponse response = null;
 		try {
-			response = HTTP_CLIENT.execute(request);
+			HttpClientContext context = HttpClientContext.create();
+			response = HTTP_CLIENT.execute(request, context);
 			if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-				return EntityUtils.toString(response.getEntity(), Consts.UTF_8);
+				long start = System.nanoTime();
+				String body = EntityUtils.toString(response.getEntity(), Consts.UTF_8);
+				recordRead(context, start);
+				return body;
 			} else {
 				LOG.warn("[HttpClient] the Response is [" + response + "]");
 			}
@@ -142,8 +381,1087 @@ public class HttpClientUtil {
 		return null;
 	}
 
+	/**
+	 * 发送Http请求，以流的方式处理响应，不把整个Entity读入内存
+	 * StatusCode==200时，返回handler的处理结果
+	 * 否则返回null
+	 * 
+	 * @param request
+	 * @param handler
+	 * @return
+	 */
+	public static <T> T send(HttpUriRequest request, ResponseStreamHandler<T> handler) {
+		CloseableHttpResponse response = null;
+		try {
+			HttpClientContext context = HttpClientContext.create();
+			response = HTTP_CLIENT.execute(request, context);
+			HttpEntity entity = response.getEntity();
+			if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK && entity != null) {
+				long start = System.nanoTime();
+				T result = handler.handle(entity.getContent(), entity.getContentLength());
+				//读完剩余内容，连接才能归还连接池复用
+				EntityUtils.consume(entity);
+				recordRead(context, start);
+				return result;
+			} else {
+				LOG.warn("[HttpClient] the Response is [" + response + "]");
+			}
+		} catch (Exception e) {
+			LOG.error("[HttpClient] the Request is [" + request + "]", e);
+		} finally {
+			if (response != null) {
+				try {
+					response.close();
+				} catch (IOException e) {
+					LOG.error("[HttpCLient] Response close", e);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 发送Http请求，由handler处理完整的响应，不区分StatusCode
+	 * 与send相同，经过连接池统计和自适应调整，handler的耗时计入读取响应
+	 * 
+	 * @param request
+	 * @param handler
+	 * @return handler的处理结果
+	 * @throws IOException 发送失败或者handler抛出
+	 */
+	public static <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler) throws IOException {
+		HttpClientContext context = HttpClientContext.create();
+		CloseableHttpResponse response = HTTP_CLIENT.execute(request, context);
+		try {
+			long start = System.nanoTime();
+			T result = handler.handleResponse(response);
+			//读完剩余内容，连接才能归还连接池复用
+			EntityUtils.consume(response.getEntity());
+			recordRead(context, start);
+			return result;
+		} finally {
+			response.close();
+		}
+	}
+
+	private static void recordRead(HttpClientContext context, long start) {
+		HttpRoute route = context.getAttribute(HttpClientContext.HTTP_ROUTE, HttpRoute.class);
+		if (route != null) {
+			CONN_MGR.getRouteMetrics(route).read.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+		}
+	}
+
+	/**
+	 * 发送Http请求，把响应直接写入文件
+	 * StatusCode==200时，返回写入的字节数
+	 * 否则返回-1
+	 * 
+	 * 先写入同一目录下的临时文件，成功后再替换target，失败时target保持原样
+	 * 
+	 * @param request
+	 * @param target
+	 * @return
+	 */
+	public static long download(HttpUriRequest request, Path target) {
+		Path tmp = null;
+		try {
+			Path dir = target.toAbsolutePath().getParent();
+			tmp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+			long written;
+			FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+			try {
+				written = download(request, channel);
+			} finally {
+				channel.close();
+			}
+			if (written >= 0) {
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				tmp = null;
+			}
+			return written;
+		} catch (IOException e) {
+			LOG.error("[HttpClient] write [" + target + "] failed", e);
+			return -1;
+		} finally {
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException e) {
+					LOG.error("[HttpClient] delete [" + tmp + "] failed", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 发送Http请求，通过池化的缓冲区把响应写入channel
+	 * StatusCode==200时，返回写入的字节数
+	 * 否则返回-1
+	 * 
+	 * @param request
+	 * @param target
+	 * @return
+	 */
+	public static long download(HttpUriRequest request, final WritableByteChannel target) {
+		final int bufferSize = streamBufferSize(request);
+		Long written = send(request, new ResponseStreamHandler<Long>() {
+
+			@Override
+			public Long handle(InputStream content, long contentLength) throws IOException {
+				ByteBuffer buffer = acquireBuffer(bufferSize);
+				try {
+					long total = 0;
+					int n;
+					while ((n = content.read(buffer.array(), 0, buffer.capacity())) != -1) {
+						buffer.limit(n);
+						while (buffer.hasRemaining()) {
+							total += target.write(buffer);
+						}
+						buffer.clear();
+					}
+					return total;
+				} finally {
+					releaseBuffer(buffer);
+				}
+			}
+		});
+		return written == null ? -1 : written;
+	}
+
+	private static int streamBufferSize(HttpUriRequest request) {
+		HttpHost host = URIUtils.extractHost(request.getURI());
+		Integer size = host == null ? null : STREAM_BUFFER_SIZES.get(withDefaultPort(host));
+		return size == null ? DEFAULT_STREAM_BUFFER_SIZE : size;
+	}
+
+	/**
+	 * URL中没有端口时extractHost返回-1，补上协议的默认端口，与连接管理器中route的target一致
+	 */
+	private static HttpHost withDefaultPort(HttpHost host) {
+		if (host.getPort() > 0) {
+			return host;
+		}
+		try {
+			return new HttpHost(host.getHostName(), DefaultSchemePortResolver.INSTANCE.resolve(host), host.getSchemeName());
+		} catch (UnsupportedSchemeException e) {
+			return host;
+		}
+	}
+
+	private static ByteBuffer acquireBuffer(int size) {
+		BlockingQueue<ByteBuffer> pool = BUFFER_POOL.get(size);
+		ByteBuffer buffer = pool == null ? null : pool.poll();
+		return buffer == null ? ByteBuffer.allocate(size) : buffer;
+	}
+
+	private static void releaseBuffer(ByteBuffer buffer) {
+		BlockingQueue<ByteBuffer> pool = BUFFER_POOL.get(buffer.capacity());
+		if (pool == null) {
+			BUFFER_POOL.putIfAbsent(buffer.capacity(),
+					new ArrayBlockingQueue<ByteBuffer>(MAX_POOLED_BUFFERS_PER_SIZE));
+			pool = BUFFER_POOL.get(buffer.capacity());
+		}
+		buffer.clear();
+		pool.offer(buffer);
+	}
+
 	public static CloseableHttpClient getHttpClient(){
 		return HttpClientUtil.HTTP_CLIENT;
 	}
+
+	/**
+	 * 针对不同的host，自定义异步客户端的最大连接数和Connection配置
+	 * 异步客户端的Socket配置由IOReactor统一管理，不支持按host设置
+	 * 
+	 * @param host
+	 * @param maxConnection
+	 * @param cc
+	 */
+	public static void customizeAsync(HttpHost host, int maxConnection, ConnectionConfig cc) {
+		if (host == null) {
+			return;
+		}
+
+		if (maxConnection > 0) {
+			AsyncClientHolder.ASYNC_CONN_MGR.setMaxPerRoute(new HttpRoute(host), maxConnection);
+		}
+
+		if (cc != null) {
+			AsyncClientHolder.ASYNC_CONN_MGR.setConnectionConfig(host, cc);
+		}
+	}
+
+	/**
+	 * 针对不同的host，自定义异步客户端的最大连接数
+	 * @param host
+	 * @param maxConnection
+	 */
+	public static void customizeAsync(HttpHost host, int maxConnection) {
+		customizeAsync(host, maxConnection, null);
+	}
+
+	/**
+	 * 异步发送Http请求，不阻塞调用线程
+	 * StatusCode==200时，以Entity字符串完成
+	 * 否则以null完成，请求失败时异常完成
+	 * 
+	 * 回调在IO线程中执行，后续处理如有阻塞操作请使用*Async方法切换到其他线程
+	 * cancel返回的Future会中断底层请求
+	 * 
+	 * @param request
+	 * @return
+	 */
+	public static CompletableFuture<String> sendAsync(final HttpUriRequest request) {
+		final CompletableFuture<String> result = new CompletableFuture<String>();
+		final HttpHost target = URIUtils.extractHost(request.getURI());
+		final long start = System.nanoTime();
+		final Future<HttpResponse> future = AsyncClientHolder.ASYNC_HTTP_CLIENT.execute(request,
+				new FutureCallback<HttpResponse>() {
+
+					@Override
+					public void completed(HttpResponse response) {
+						recordRecentLatency(target, start);
+						try {
+							if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
+								result.complete(EntityUtils.toString(response.getEntity(), Consts.UTF_8));
+							} else {
+								LOG.warn("[HttpAsyncClient] the Response is [" + response + "]");
+								EntityUtils.consumeQuietly(response.getEntity());
+								result.complete(null);
+							}
+						} catch (Exception e) {
+							LOG.error("[HttpAsyncClient] the Request is [" + request + "]", e);
+							result.completeExceptionally(e);
+						}
+					}
+
+					@Override
+					public void failed(Exception e) {
+						LOG.error("[HttpAsyncClient] the Request is [" + request + "]", e);
+						result.completeExceptionally(e);
+					}
+
+					@Override
+					public void cancelled() {
+						result.cancel(false);
+					}
+				});
+		result.whenComplete((body, e) -> {
+			if (result.isCancelled()) {
+				future.cancel(true);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * 发送对冲请求
+	 * 
+	 * @see #sendHedged(HttpUriRequest, double, HttpHost)
+	 */
+	public static CompletableFuture<String> sendHedged(HttpUriRequest request, double percentile) {
+		return sendHedged(request, percentile, null);
+	}
+
+	/**
+	 * 发送对冲请求，降低长尾延迟
+	 * 超过该host最近耗时的percentile分位数仍未返回时，向alternate（为null时为原host）再发送一个相同的请求，
+	 * 先成功返回的结果生效，另一个请求被取消
+	 * 
+	 * 样本不足，或者请求带有不可重复读取的Entity时，不发送对冲请求
+	 * 只应该用于幂等的请求
+	 * 
+	 * @param request
+	 * @param percentile 0~100
+	 * @param alternate
+	 * @return
+	 */
+	public static CompletableFuture<String> sendHedged(HttpUriRequest request, double percentile, HttpHost alternate) {
+		final CompletableFuture<String> result = new CompletableFuture<String>();
+		final AtomicInteger outstanding = new AtomicInteger(1);
+		final CompletableFuture<String> primary = sendAsync(request);
+		forwardHedged(primary, result, outstanding);
+
+		final HttpUriRequest hedgeRequest = copyForHedge(request, alternate);
+		long delay = hedgeDelayMicros(URIUtils.extractHost(request.getURI()), percentile);
+		if (hedgeRequest == null || delay < 0) {
+			return result;
+		}
+
+		final ScheduledFuture<?> timer = AsyncClientHolder.HEDGE_TIMER.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				if (result.isDone()) {
+					return;
+				}
+				outstanding.incrementAndGet();
+				final CompletableFuture<String> hedge = sendAsync(hedgeRequest);
+				forwardHedged(hedge, result, outstanding);
+				result.whenComplete((body, e) -> hedge.cancel(true));
+			}
+		}, delay, TimeUnit.MICROSECONDS);
+		result.whenComplete((body, e) -> {
+			timer.cancel(false);
+			primary.cancel(true);
+		});
+		return result;
+	}
+
+	/**
+	 * 批量发送请求
+	 * 
+	 * @see #sendAll(List, int)
+	 */
+	public static List<String> sendAll(List<HttpUriRequest> requests) {
+		return sendAll(requests, DEFAULT_BATCH_CONCURRENCY);
+	}
+
+	/**
+	 * 批量发送请求，同时在途的请求不超过maxConcurrency
+	 * 按请求的顺序返回结果，StatusCode!=200或者失败的请求对应null
+	 * 阻塞直到所有请求完成
+	 * 
+	 * @param requests
+	 * @param maxConcurrency
+	 * @return
+	 */
+	public static List<String> sendAll(List<HttpUriRequest> requests, int maxConcurrency) {
+		if (requests == null) {
+			return null;
+		}
+
+		final Semaphore permits = new Semaphore(Math.max(1, maxConcurrency));
+		List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>(requests.size());
+		try {
+			for (HttpUriRequest request : requests) {
+				permits.acquire();
+				CompletableFuture<String> future;
+				try {
+					future = sendAsync(request);
+				} catch (RuntimeException e) {
+					//同步抛出时没有回调，要在这里归还许可，这个请求的结果为null
+					permits.release();
+					LOG.error("[HttpClient] the Request is [" + request + "]", e);
+					futures.add(CompletableFuture.<String>completedFuture(null));
+					continue;
+				}
+				future.whenComplete((body, e) -> permits.release());
+				futures.add(future);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			for (CompletableFuture<String> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		List<String> results = new ArrayList<String>(requests.size());
+		for (CompletableFuture<String> future : futures) {
+			try {
+				results.add(future.join());
+			} catch (Exception e) {
+				results.add(null);
+			}
+		}
+		while (results.size() < requests.size()) {
+			results.add(null);
+		}
+		return results;
+	}
+
+	/**
+	 * 第一个非null的结果生效，所有请求都没有结果时，以最后一个请求的结果完成
+	 */
+	private static void forwardHedged(CompletableFuture<String> source, final CompletableFuture<String> result,
+			final AtomicInteger outstanding) {
+		source.whenComplete((body, e) -> {
+			if (body != null) {
+				result.complete(body);
+			} else if (outstanding.decrementAndGet() == 0) {
+				if (e != null) {
+					result.completeExceptionally(e);
+				} else {
+					result.complete(null);
+				}
+			}
+		});
+	}
+
+	private static HttpUriRequest copyForHedge(HttpUriRequest request, HttpHost alternate) {
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			if (entity != null && !entity.isRepeatable()) {
+				return null;
+			}
+		}
+
+		RequestBuilder builder = RequestBuilder.copy(request);
+		if (alternate != null) {
+			try {
+				builder.setUri(URIUtils.rewriteURI(request.getURI(), alternate));
+			} catch (URISyntaxException e) {
+				LOG.error("[HttpAsyncClient] rewrite [" + request + "] to [" + alternate + "] failed", e);
+				return null;
+			}
+		}
+		return builder.build();
+	}
+
+	private static long hedgeDelayMicros(HttpHost host, double percentile) {
+		RecentLatency latency = host == null ? null : RECENT_LATENCY.get(host);
+		if (latency == null) {
+			return -1;
+		}
+		LatencyHistogram histogram = latency.snapshot();
+		if (histogram.getCount() < HEDGE_MIN_SAMPLES) {
+			return -1;
+		}
+		return Math.max(HEDGE_MIN_DELAY_MICROS, histogram.getPercentile(percentile));
+	}
+
+	private static void recordRecentLatency(HttpHost host, long start) {
+		if (host == null) {
+			return;
+		}
+		RecentLatency latency = RECENT_LATENCY.get(host);
+		if (latency == null) {
+			RECENT_LATENCY.putIfAbsent(host, new RecentLatency());
+			latency = RECENT_LATENCY.get(host);
+		}
+		latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+	}
+
+	public static CloseableHttpAsyncClient getHttpAsyncClient() {
+		return AsyncClientHolder.ASYNC_HTTP_CLIENT;
+	}
+
+	/**
+	 * 异步客户端在第一次使用时才初始化，避免只用同步接口时也启动IO线程
+	 */
+	private static class AsyncClientHolder {
+
+		private static final PoolingNHttpClientConnectionManager ASYNC_CONN_MGR;
+		private static final CloseableHttpAsyncClient ASYNC_HTTP_CLIENT;
+		private static final ScheduledExecutorService HEDGE_TIMER =
+				Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("http-hedge-timer"));
+
+		static {
+			ThreadFactory threadFactory = new DaemonThreadFactory("http-async-io");
+
+			IOReactorConfig ioReactorConfig = IOReactorConfig
+					.custom()
+					.setIoThreadCount(Runtime.getRuntime().availableProcessors())
+					.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT)
+					.setSoTimeout(DEFAULT_SOCKET_TIMEOUT)
+					.build();
+
+			ConnectionConfig connConfig = ConnectionConfig
+					.custom()
+					.setBufferSize(DEFAULT_ASYNC_BUFFER_SIZE)
+					.setCharset(DEFAULT_CHARSET)
+					.build();
+
+			RequestConfig reqConfig = RequestConfig
+					.copy(DEFAULT_REQ_CONFIG)
+					.setConnectionRequestTimeout(DEFAULT_ASYNC_CONNECTION_REQUEST_TIMEOUT)
+					.build();
+
+			try {
+				ASYNC_CONN_MGR = new PoolingNHttpClientConnectionManager(
+						new DefaultConnectingIOReactor(ioReactorConfig, threadFactory));
+			} catch (IOReactorException e) {
+				throw new IllegalStateException("[HttpAsyncClient] IOReactor init failed", e);
+			}
+			ASYNC_CONN_MGR.setMaxTotal(DEFAULT_ASYNC_MAX_TOTAL);
+			ASYNC_CONN_MGR.setDefaultMaxPerRoute(DEFAULT_ASYNC_MAX_PER_ROUTE);
+			ASYNC_CONN_MGR.setDefaultConnectionConfig(connConfig);
+
+			ASYNC_HTTP_CLIENT = HttpAsyncClients
+					.custom()
+					.setConnectionManager(ASYNC_CONN_MGR)
+					.setDefaultRequestConfig(reqConfig)
+					.setThreadFactory(threadFactory)
+					.build();
+			ASYNC_HTTP_CLIENT.start();
+		}
+	}
+
+	/**
+	 * 流式处理响应Entity
+	 * content在handle返回后由HttpClientUtil负责关闭
+	 */
+	public interface ResponseStreamHandler<T> {
+
+		T handle(InputStream content, long contentLength) throws IOException;
+	}
+
+	/**
+	 * 以ReadableByteChannel的方式处理响应Entity
+	 */
+	public static abstract class ChannelStreamHandler<T> implements ResponseStreamHandler<T> {
+
+		@Override
+		public final T handle(InputStream content, long contentLength) throws IOException {
+			return handleChannel(Channels.newChannel(content), contentLength);
+		}
+
+		public abstract T handleChannel(ReadableByteChannel channel, long contentLength) throws IOException;
+	}
+
+	/**
+	 * 连接池整体统计，注册为JMX MBean HttpClientUtil:type=Pool
+	 */
+	public interface PoolMetricsMXBean {
+
+		int getLeased();
+
+		int getAvailable();
+
+		int getPending();
+
+		int getMax();
+
+		int getRouteCount();
+	}
+
+	/**
+	 * 单个route的统计，注册为JMX MBean HttpClientUtil:type=Route,name=&lt;route&gt;
+	 * 耗时单位为微秒：Lease为从连接池获取连接，Connect为建立连接，
+	 * Ttfb为发出请求到收到响应头，Read为读取响应Entity
+	 */
+	public interface RouteMetricsMXBean {
+
+		int getLeased();
+
+		int getAvailable();
+
+		int getPending();
+
+		int getMax();
+
+		long getLeaseTimeouts();
+
+		long getLeaseCount();
+
+		long getLeaseP50Micros();
+
+		long getLeaseP99Micros();
+
+		long getLeaseMaxMicros();
+
+		long getConnectCount();
+
+		long getConnectP50Micros();
+
+		long getConnectP99Micros();
+
+		long getConnectMaxMicros();
+
+		long getTtfbCount();
+
+		long getTtfbP50Micros();
+
+		long getTtfbP99Micros();
+
+		long getTtfbMaxMicros();
+
+		long getReadCount();
+
+		long getReadP50Micros();
+
+		long getReadP99Micros();
+
+		long getReadMaxMicros();
+
+		long getStatus1xx();
+
+		long getStatus2xx();
+
+		long getStatus3xx();
+
+		long getStatus4xx();
+
+		long getStatus5xx();
+
+		long getErrors();
+	}
+
+	/**
+	 * 按route记录获取连接、建立连接的耗时，并注册JMX MBean
+	 * 
+	 * 不包装ConnectionRequest：requestConnection在当前线程记下开始时间，
+	 * 同一个线程中请求发出时（InstrumentedRequestExecutor）扣除建立连接的耗时，得到获取连接的耗时
+	 * 获取连接超时由send捕获ConnectionPoolTimeoutException后记录
+	 */
+	private static class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager {
+
+		private final ConcurrentMap<HttpRoute, RouteMetrics> routeMetrics =
+				new ConcurrentHashMap<HttpRoute, RouteMetrics>();
+
+		private final ThreadLocal<LeaseTimer> leaseTimer = new ThreadLocal<LeaseTimer>() {
+
+			@Override
+			protected LeaseTimer initialValue() {
+				return new LeaseTimer();
+			}
+		};
+
+		@Override
+		public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+			LeaseTimer timer = leaseTimer.get();
+			RouteMetrics metrics;
+			do {
+				//正在被回收的统计不能再用，等回收完成后重新创建，或者回收放弃
+				metrics = getRouteMetrics(route);
+				metrics.lastUsed = System.currentTimeMillis();
+			} while (metrics.retired);
+			timer.metrics = metrics;
+			timer.connectNanos = 0;
+			timer.start = System.nanoTime();
+			return super.requestConnection(route, state);
+		}
+
+		@Override
+		public void connect(HttpClientConnection managedConn, HttpRoute route,
+				int connectTimeout, HttpContext context) throws IOException {
+			long start = System.nanoTime();
+			super.connect(managedConn, route, connectTimeout, context);
+			long elapsed = System.nanoTime() - start;
+			getRouteMetrics(route).connect.record(TimeUnit.NANOSECONDS.toMicros(elapsed));
+			leaseTimer.get().connectNanos += elapsed;
+		}
+
+		/**
+		 * 在发出请求的线程中调用，每次requestConnection只记录一次
+		 */
+		void recordLease(long now) {
+			LeaseTimer timer = leaseTimer.get();
+			RouteMetrics metrics = timer.metrics;
+			if (metrics == null) {
+				return;
+			}
+			timer.metrics = null;
+			long elapsed = Math.max(0, now - timer.start - timer.connectNanos);
+			metrics.lease.record(TimeUnit.NANOSECONDS.toMicros(elapsed));
+			metrics.windowLeases.incrementAndGet();
+			metrics.windowLeaseNanos.addAndGet(elapsed);
+		}
+
+		void recordLeaseTimeout() {
+			LeaseTimer timer = leaseTimer.get();
+			RouteMetrics metrics = timer.metrics;
+			if (metrics == null) {
+				return;
+			}
+			timer.metrics = null;
+			metrics.leaseTimeouts.incrementAndGet();
+			metrics.windowLeaseTimeouts.incrementAndGet();
+		}
+
+		/**
+		 * 不存在时返回null，不创建
+		 */
+		RouteMetrics peekRouteMetrics(HttpRoute route) {
+			return routeMetrics.get(route);
+		}
+
+		/**
+		 * 回收长时间没有请求并且没有在用连接的route的统计，之后再有请求时重新创建
+		 * 
+		 * 先标记retired再检查lastUsed，requestConnection先写lastUsed再检查retired，
+		 * 两边至少有一边能看到对方的写入：要么这里放弃回收，要么requestConnection不使用这个对象
+		 */
+		void evictIdleRouteMetrics() {
+			try {
+				long idleBefore = System.currentTimeMillis() - ROUTE_METRICS_IDLE_TIMEOUT;
+				for (RouteMetrics metrics : routeMetrics.values()) {
+					if (metrics.lastUsed >= idleBefore) {
+						continue;
+					}
+					PoolStats stats = getStats(metrics.route);
+					if (stats.getLeased() != 0 || stats.getPending() != 0) {
+						continue;
+					}
+					metrics.retired = true;
+					if (metrics.lastUsed >= idleBefore) {
+						metrics.retired = false;
+						continue;
+					}
+					removeRouteMetrics(metrics);
+				}
+			} catch (Exception e) {
+				LOG.error("[HttpClient] evict route metrics failed", e);
+			}
+		}
+
+		@Override
+		public void shutdown() {
+			super.shutdown();
+			for (RouteMetrics metrics : routeMetrics.values()) {
+				removeRouteMetrics(metrics);
+			}
+		}
+
+		/**
+		 * 先注销MBean再从map中删除，重新创建时不会与旧的MBean重名
+		 */
+		private void removeRouteMetrics(RouteMetrics metrics) {
+			if (routeMetrics.get(metrics.route) == metrics) {
+				unregisterMBean(routeMBeanName(metrics.route));
+				routeMetrics.remove(metrics.route, metrics);
+			}
+		}
+
+		RouteMetrics getRouteMetrics(HttpRoute route) {
+			RouteMetrics metrics = routeMetrics.get(route);
+			if (metrics == null) {
+				RouteMetrics created = new RouteMetrics(route);
+				metrics = routeMetrics.putIfAbsent(route, created);
+				if (metrics == null) {
+					metrics = created;
+					registerMBean(created, routeMBeanName(route));
+				}
+			}
+			return metrics;
+		}
+
+		private static String routeMBeanName(HttpRoute route) {
+			return "HttpClientUtil:type=Route,name=" + ObjectName.quote(route.toString());
+		}
+	}
+
+	/**
+	 * 在获取连接的执行环节记录获取连接超时，所有使用HTTP_CLIENT的调用都会统计到
+	 * 
+	 * PoolingHttpClientConnectionManager返回的ConnectionRequest只能逐个包装才能拦截，
+	 * leaseConnection的参数类型又不可见，所以放在紧挨着获取连接的MainClientExec外面，每个client只创建一次
+	 */
+	private static class LeaseTimeoutRecordingBuilder extends HttpClientBuilder {
+
+		@Override
+		protected ClientExecChain decorateMainExec(final ClientExecChain mainExec) {
+			return new ClientExecChain() {
+
+				@Override
+				public CloseableHttpResponse execute(HttpRoute route, HttpRequestWrapper request,
+						HttpClientContext context, HttpExecutionAware execAware) throws IOException, HttpException {
+					try {
+						return mainExec.execute(route, request, context, execAware);
+					} catch (ConnectionPoolTimeoutException e) {
+						CONN_MGR.recordLeaseTimeout();
+						throw e;
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * 当前线程最近一次requestConnection的计时，每个线程复用一个对象
+	 */
+	private static class LeaseTimer {
+		private RouteMetrics metrics;
+		private long start;
+		private long connectNanos;
+	}
+
+	/**
+	 * 记录发出请求到收到响应头的耗时和响应状态码
+	 */
+	private static class InstrumentedRequestExecutor extends HttpRequestExecutor {
+
+		@Override
+		public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+				throws IOException, HttpException {
+			HttpRoute route = HttpClientContext.adapt(context).getAttribute(HttpClientContext.HTTP_ROUTE, HttpRoute.class);
+			RouteMetrics metrics = route == null ? null : CONN_MGR.getRouteMetrics(route);
+			long start = System.nanoTime();
+			CONN_MGR.recordLease(start);
+			try {
+				HttpResponse response = super.execute(request, conn, context);
+				if (metrics != null) {
+					metrics.ttfb.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+					metrics.recordStatus(response.getStatusLine().getStatusCode());
+				}
+				return response;
+			} catch (IOException e) {
+				if (metrics != null) {
+					metrics.errors.incrementAndGet();
+				}
+				throw e;
+			} catch (HttpException e) {
+				if (metrics != null) {
+					metrics.errors.incrementAndGet();
+				}
+				throw e;
+			}
+		}
+	}
+
+	private static class RouteMetrics implements RouteMetricsMXBean {
+
+		private final HttpRoute route;
+
+		private final LatencyHistogram lease = new LatencyHistogram();
+		private final LatencyHistogram connect = new LatencyHistogram();
+		private final LatencyHistogram ttfb = new LatencyHistogram();
+		private final LatencyHistogram read = new LatencyHistogram();
+		private final AtomicLong leaseTimeouts = new AtomicLong();
+		//下标为状态码/100，0为其他
+		private final AtomicLongArray statusCounts = new AtomicLongArray(6);
+		private final AtomicLong errors = new AtomicLong();
+
+		//自适应调整使用的周期计数，每个周期由调整线程清零
+		private final AtomicLong windowLeases = new AtomicLong();
+		private final AtomicLong windowLeaseNanos = new AtomicLong();
+		private final AtomicLong windowLeaseTimeouts = new AtomicLong();
+		//只在调整线程中读写
+		private int idleRounds;
+		//最近一次requestConnection的时间，用于回收空闲route的统计
+		private volatile long lastUsed = System.currentTimeMillis();
+		//正在回收
+		private volatile boolean retired;
+
+		RouteMetrics(HttpRoute route) {
+			this.route = route;
+		}
+
+		void recordStatus(int statusCode) {
+			int index = statusCode / 100;
+			statusCounts.incrementAndGet(index > 0 && index < 6 ? index : 0);
+		}
+
+		@Override
+		public int getLeased() {
+			return CONN_MGR.getStats(route).getLeased();
+		}
+
+		@Override
+		public int getAvailable() {
+			return CONN_MGR.getStats(route).getAvailable();
+		}
+
+		@Override
+		public int getPending() {
+			return CONN_MGR.getStats(route).getPending();
+		}
+
+		@Override
+		public int getMax() {
+			return CONN_MGR.getStats(route).getMax();
+		}
+
+		@Override
+		public long getLeaseTimeouts() {
+			return leaseTimeouts.get();
+		}
+
+		@Override
+		public long getLeaseCount() {
+			return lease.getCount();
+		}
+
+		@Override
+		public long getLeaseP50Micros() {
+			return lease.getPercentile(50);
+		}
+
+		@Override
+		public long getLeaseP99Micros() {
+			return lease.getPercentile(99);
+		}
+
+		@Override
+		public long getLeaseMaxMicros() {
+			return lease.getMax();
+		}
+
+		@Override
+		public long getConnectCount() {
+			return connect.getCount();
+		}
+
+		@Override
+		public long getConnectP50Micros() {
+			return connect.getPercentile(50);
+		}
+
+		@Override
+		public long getConnectP99Micros() {
+			return connect.getPercentile(99);
+		}
+
+		@Override
+		public long getConnectMaxMicros() {
+			return connect.getMax();
+		}
+
+		@Override
+		public long getTtfbCount() {
+			return ttfb.getCount();
+		}
+
+		@Override
+		public long getTtfbP50Micros() {
+			return ttfb.getPercentile(50);
+		}
+
+		@Override
+		public long getTtfbP99Micros() {
+			return ttfb.getPercentile(99);
+		}
+
+		@Override
+		public long getTtfbMaxMicros() {
+			return ttfb.getMax();
+		}
+
+		@Override
+		public long getReadCount() {
+			return read.getCount();
+		}
+
+		@Override
+		public long getReadP50Micros() {
+			return read.getPercentile(50);
+		}
+
+		@Override
+		public long getReadP99Micros() {
+			return read.getPercentile(99);
+		}
+
+		@Override
+		public long getReadMaxMicros() {
+			return read.getMax();
+		}
+
+		@Override
+		public long getStatus1xx() {
+			return statusCounts.get(1);
+		}
+
+		@Override
+		public long getStatus2xx() {
+			return statusCounts.get(2);
+		}
+
+		@Override
+		public long getStatus3xx() {
+			return statusCounts.get(3);
+		}
+
+		@Override
+		public long getStatus4xx() {
+			return statusCounts.get(4);
+		}
+
+		@Override
+		public long getStatus5xx() {
+			return statusCounts.get(5);
+		}
+
+		@Override
+		public long getErrors() {
+			return errors.get() + statusCounts.get(0);
+		}
+	}
+
+	private static class PoolMetrics implements PoolMetricsMXBean {
+
+		@Override
+		public int getLeased() {
+			return CONN_MGR.getTotalStats().getLeased();
+		}
+
+		@Override
+		public int getAvailable() {
+			return CONN_MGR.getTotalStats().getAvailable();
+		}
+
+		@Override
+		public int getPending() {
+			return CONN_MGR.getTotalStats().getPending();
+		}
+
+		@Override
+		public int getMax() {
+			return CONN_MGR.getTotalStats().getMax();
+		}
+
+		@Override
+		public int getRouteCount() {
+			return CONN_MGR.getRoutes().size();
+		}
+	}
+
+	private static void registerMBean(Object mbean, String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName(name));
+		} catch (Exception e) {
+			LOG.error("[HttpClient] register MBean [" + name + "] failed", e);
+		}
+	}
+
+	private static void unregisterMBean(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+		} catch (Exception e) {
+			LOG.error("[HttpClient] unregister MBean [" + name + "] failed", e);
+		}
+	}
+
+	/**
+	 * 最近一个窗口的耗时，窗口结束时丢弃上上个窗口的数据
+	 */
+	private static class RecentLatency {
+
+		private volatile LatencyHistogram current = new LatencyHistogram();
+		private volatile LatencyHistogram previous = new LatencyHistogram();
+		private volatile long rotateAt = System.currentTimeMillis() + RECENT_LATENCY_WINDOW;
+
+		void record(long micros) {
+			if (System.currentTimeMillis() >= rotateAt) {
+				rotate();
+			}
+			current.record(micros);
+		}
+
+		/**
+		 * 当前窗口样本不足时使用上一个窗口
+		 */
+		LatencyHistogram snapshot() {
+			LatencyHistogram cur = current;
+			return cur.getCount() >= HEDGE_MIN_SAMPLES ? cur : previous;
+		}
+
+		private synchronized void rotate() {
+			long now = System.currentTimeMillis();
+			if (now < rotateAt) {
+				return;
+			}
+			previous = current;
+			current = new LatencyHistogram();
+			rotateAt = now + RECENT_LATENCY_WINDOW;
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
 }
 
@@ -0,0 +1,448 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpOptions;
+import org.apache.http.client.methods.HttpTrace;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * 在HttpClientUtil之前的进程内响应缓存
+ *
+ * 只缓存GET请求的200响应，遵循Cache-Control/Expires，过期后通过ETag/Last-Modified做条件请求
+ * 按URI和Accept等选择响应的请求头区分缓存，Vary只能包含这些请求头，带Authorization的请求不缓存也不合并
+ * 按响应体字节数限制容量，LRU淘汰，响应体可以存放在堆外
+ * 缓存键相同的并发请求合并为一次回源
+ * 线程安全
+ */
+public class HttpResponseCache {
+
+    private static final Log LOG = LogFactory.getLog(HttpResponseCache.class);
+
+    //每个缓存项除响应体外的估算开销
+    private static final int ENTRY_OVERHEAD = 128;
+
+    //决定返回哪种表示的请求头，加入缓存键
+    private static final String[] KEY_HEADERS = {HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_CHARSET,
+            HttpHeaders.ACCEPT_ENCODING, HttpHeaders.ACCEPT_LANGUAGE};
+
+    private final long maxBytes;
+    private final boolean offHeap;
+
+    //access-order，迭代顺序即LRU顺序
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+    private long usedBytes;
+
+    private final ConcurrentMap<String, CompletableFuture<String>> inFlight =
+            new ConcurrentHashMap<String, CompletableFuture<String>>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong revalidatedCount = new AtomicLong();
+    private final AtomicLong collapsedCount = new AtomicLong();
+
+    /**
+     * @param maxBytes 缓存的响应体总字节数上限
+     * @param offHeap  响应体是否存放在堆外
+     */
+    public HttpResponseCache(long maxBytes, boolean offHeap) {
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * 发送Http请求，语义与HttpClientUtil.send相同
+     * StatusCode==200时，返回Entity字符串
+     * 否则返回null
+     *
+     * GET请求优先使用缓存，其他请求直接发送，并使该URI的缓存失效
+     *
+     * @param request
+     * @return
+     */
+    public String send(HttpUriRequest request) {
+        String uri = request.getURI().toString();
+        if (!HttpGet.METHOD_NAME.equals(request.getMethod())) {
+            if (!isSafe(request.getMethod())) {
+                invalidate(uri);
+            }
+            return HttpClientUtil.send(request);
+        }
+
+        if (request.containsHeader(HttpHeaders.AUTHORIZATION) || hasDirective(request.getHeaders(HttpHeaders.CACHE_CONTROL), "no-store")) {
+            return HttpClientUtil.send(request);
+        }
+
+        String key = cacheKey(uri, request);
+        CacheEntry entry = get(key);
+        if (entry != null && entry.isFresh(System.currentTimeMillis())
+                && !hasDirective(request.getHeaders(HttpHeaders.CACHE_CONTROL), "no-cache")) {
+            hitCount.incrementAndGet();
+            return entry.getBody();
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            collapsedCount.incrementAndGet();
+            try {
+                return existing.join();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        String body = null;
+        try {
+            body = fetch(request, key, entry);
+        } finally {
+            inFlight.remove(key, future);
+            future.complete(body);
+        }
+        return body;
+    }
+
+    /**
+     * 删除该URI所有请求头组合的缓存
+     */
+    public void invalidate(String uri) {
+        String prefix = uri + '\n';
+        synchronized (entries) {
+            Iterator<Map.Entry<String, CacheEntry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, CacheEntry> entry = it.next();
+                if (entry.getKey().equals(uri) || entry.getKey().startsWith(prefix)) {
+                    usedBytes -= entry.getValue().size;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            usedBytes = 0;
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getRevalidatedCount() {
+        return revalidatedCount.get();
+    }
+
+    public long getCollapsedCount() {
+        return collapsedCount.get();
+    }
+
+    public long getUsedBytes() {
+        synchronized (entries) {
+            return usedBytes;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private String fetch(HttpUriRequest request, final String key, final CacheEntry stale) {
+        HttpUriRequest actual = request;
+        if (stale != null && stale.hasValidator()) {
+            RequestBuilder builder = RequestBuilder.copy(request);
+            if (stale.etag != null) {
+                builder.setHeader(HttpHeaders.IF_NONE_MATCH, stale.etag);
+            }
+            if (stale.lastModified != null) {
+                builder.setHeader(HttpHeaders.IF_MODIFIED_SINCE, stale.lastModified);
+            }
+            actual = builder.build();
+        }
+
+        try {
+            return HttpClientUtil.execute(actual, new ResponseHandler<String>() {
+
+                @Override
+                public String handleResponse(HttpResponse response) throws IOException {
+                    return handle(response, key, stale);
+                }
+            });
+        } catch (Exception e) {
+            LOG.error("[HttpResponseCache] the Request is [" + request + "]", e);
+        }
+        return null;
+    }
+
+    private String handle(HttpResponse response, String key, CacheEntry stale) throws IOException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        long now = System.currentTimeMillis();
+
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED && stale != null) {
+            revalidatedCount.incrementAndGet();
+            //RFC 7234 4.3.4，304没有带新鲜度信息时沿用原来的有效期，从现在重新计算
+            if (hasFreshnessInfo(response)) {
+                long freshUntil = freshUntil(response, now);
+                stale.lifetime = freshUntil - now;
+                stale.freshUntil = freshUntil;
+            } else {
+                stale.freshUntil = now + stale.lifetime;
+            }
+            return stale.getBody();
+        }
+
+        missCount.incrementAndGet();
+        if (statusCode != HttpStatus.SC_OK) {
+            LOG.warn("[HttpResponseCache] the Response is [" + response + "]");
+            remove(key);
+            return null;
+        }
+
+        HttpEntity entity = response.getEntity();
+        byte[] bytes = EntityUtils.toByteArray(entity);
+        ContentType contentType = ContentType.get(entity);
+        Charset charset = contentType == null || contentType.getCharset() == null
+                ? Consts.UTF_8 : contentType.getCharset();
+
+        if (isCacheable(response)) {
+            long freshUntil = freshUntil(response, now);
+            put(key, new CacheEntry(bytes, charset, offHeap, header(response, HttpHeaders.ETAG),
+                    header(response, HttpHeaders.LAST_MODIFIED), freshUntil, freshUntil - now, key.length()));
+        } else {
+            remove(key);
+        }
+        return new String(bytes, charset);
+    }
+
+    private CacheEntry get(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (entries) {
+            CacheEntry entry = entries.remove(key);
+            if (entry != null) {
+                usedBytes -= entry.size;
+            }
+        }
+    }
+
+    private void put(String key, CacheEntry entry) {
+        if (entry.size > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            CacheEntry old = entries.put(key, entry);
+            if (old != null) {
+                usedBytes -= old.size;
+            }
+            usedBytes += entry.size;
+
+            Iterator<Map.Entry<String, CacheEntry>> it = entries.entrySet().iterator();
+            while (usedBytes > maxBytes && it.hasNext()) {
+                usedBytes -= it.next().getValue().size;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * URI加上KEY_HEADERS中出现的请求头，URI中不会有换行
+     */
+    private static String cacheKey(String uri, HttpUriRequest request) {
+        StringBuilder key = null;
+        for (String name : KEY_HEADERS) {
+            for (Header header : request.getHeaders(name)) {
+                if (key == null) {
+                    key = new StringBuilder(uri);
+                }
+                key.append('\n').append(name).append(':').append(header.getValue());
+            }
+        }
+        return key == null ? uri : key.toString();
+    }
+
+    /**
+     * 没有新鲜度信息也没有校验信息的响应不缓存
+     * Vary包含KEY_HEADERS以外的请求头时，缓存键区分不了，也不缓存
+     */
+    private static boolean isCacheable(HttpResponse response) {
+        Header[] cacheControl = response.getHeaders(HttpHeaders.CACHE_CONTROL);
+        if (hasDirective(cacheControl, "no-store")) {
+            return false;
+        }
+        for (Header vary : response.getHeaders(HttpHeaders.VARY)) {
+            for (HeaderElement element : vary.getElements()) {
+                if (!isKeyHeader(element.getName())) {
+                    return false;
+                }
+            }
+        }
+        return directiveValue(cacheControl, "max-age") != null
+                || response.containsHeader(HttpHeaders.EXPIRES)
+                || response.containsHeader(HttpHeaders.ETAG)
+                || response.containsHeader(HttpHeaders.LAST_MODIFIED);
+    }
+
+    private static boolean isKeyHeader(String name) {
+        for (String keyHeader : KEY_HEADERS) {
+            if (keyHeader.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasFreshnessInfo(HttpResponse response) {
+        Header[] cacheControl = response.getHeaders(HttpHeaders.CACHE_CONTROL);
+        return hasDirective(cacheControl, "no-cache")
+                || directiveValue(cacheControl, "max-age") != null
+                || response.containsHeader(HttpHeaders.EXPIRES);
+    }
+
+    private static long freshUntil(HttpResponse response, long now) {
+        Header[] cacheControl = response.getHeaders(HttpHeaders.CACHE_CONTROL);
+        if (hasDirective(cacheControl, "no-cache")) {
+            return now;
+        }
+
+        String maxAge = directiveValue(cacheControl, "max-age");
+        if (maxAge != null) {
+            try {
+                long age = 0;
+                String ageHeader = header(response, HttpHeaders.AGE);
+                if (ageHeader != null) {
+                    age = Long.parseLong(ageHeader.trim());
+                }
+                return now + Math.max(0, Long.parseLong(maxAge) - age) * 1000;
+            } catch (NumberFormatException e) {
+                return now;
+            }
+        }
+
+        Date expires = parseDate(header(response, HttpHeaders.EXPIRES));
+        if (expires != null) {
+            Date date = parseDate(header(response, HttpHeaders.DATE));
+            long base = date == null ? now : date.getTime();
+            return now + Math.max(0, expires.getTime() - base);
+        }
+        return now;
+    }
+
+    private static boolean hasDirective(Header[] headers, String name) {
+        for (Header header : headers) {
+            for (HeaderElement element : header.getElements()) {
+                if (name.equalsIgnoreCase(element.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String directiveValue(Header[] headers, String name) {
+        for (Header header : headers) {
+            for (HeaderElement element : header.getElements()) {
+                if (name.equalsIgnoreCase(element.getName())) {
+                    return element.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String header(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static Date parseDate(String value) {
+        return value == null ? null : DateUtils.parseDate(value);
+    }
+
+    private static boolean isSafe(String method) {
+        return HttpHead.METHOD_NAME.equals(method)
+                || HttpOptions.METHOD_NAME.equals(method)
+                || HttpTrace.METHOD_NAME.equals(method);
+    }
+
+    private static class CacheEntry {
+        private final byte[] heapBody;
+        private final ByteBuffer offHeapBody;
+        private final Charset charset;
+        private final String etag;
+        private final String lastModified;
+        private final long size;
+        private volatile long freshUntil;
+        //新鲜度的时长，304没有带新鲜度信息时沿用
+        private volatile long lifetime;
+
+        CacheEntry(byte[] body, Charset charset, boolean offHeap, String etag, String lastModified,
+                   long freshUntil, long lifetime, int keyLength) {
+            if (offHeap) {
+                this.heapBody = null;
+                this.offHeapBody = ByteBuffer.allocateDirect(body.length);
+                this.offHeapBody.put(body).flip();
+            } else {
+                this.heapBody = body;
+                this.offHeapBody = null;
+            }
+            this.charset = charset;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.freshUntil = freshUntil;
+            this.lifetime = lifetime;
+            this.size = body.length + keyLength * 2L + ENTRY_OVERHEAD;
+        }
+
+        boolean isFresh(long now) {
+            return now < freshUntil;
+        }
+
+        boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+
+        String getBody() {
+            if (heapBody != null) {
+                return new String(heapBody, charset);
+            }
+            byte[] bytes = new byte[offHeapBody.remaining()];
+            offHeapBody.duplicate().get(bytes);
+            return new String(bytes, charset);
+        }
+    }
+}
@@ -0,0 +1,419 @@
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定时采集JMX数值属性
+ *
+ * 按固定间隔采集配置的ObjectName pattern的数值属性，每个MBean的每个属性是一个时间序列，
+ * 保存在预分配的long[]/double[]环形缓冲区中，内存占用固定，采样不装箱
+ * 支持窗口内的差值、速率、平均值、最小值、最大值
+ */
+public class JMXMetricsPoller {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JMXMetricsPoller.class);
+
+    private static final int DEFAULT_PARALLELISM = 8;
+    //连续这么多个采集周期没有出现的MBean，丢弃其时间序列
+    private static final int STALE_INTERVALS = 3;
+
+    private final ConnectionSource connectionSource;
+    private final long intervalMillis;
+    private final int capacity;
+    private final List<PatternGroup> groups = new CopyOnWriteArrayList<PatternGroup>();
+
+    //start或者第一次pollOnce时创建，stop时关闭
+    private ExecutorService fetchExecutor;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param conn
+     * @param intervalMillis 采集间隔
+     * @param capacity       每个时间序列保存的采样数
+     */
+    public JMXMetricsPoller(final MBeanServerConnection conn, long intervalMillis, int capacity) {
+        this(new ConnectionSource() {
+            @Override
+            public Optional<MBeanServerConnection> get() {
+                return Optional.of(conn);
+            }
+        }, intervalMillis, capacity);
+    }
+
+    private JMXMetricsPoller(ConnectionSource connectionSource, long intervalMillis, int capacity) {
+        this.connectionSource = connectionSource;
+        this.intervalMillis = intervalMillis;
+        this.capacity = capacity;
+    }
+
+    /**
+     * 采集远程JMX，使用JMXUtils的连接池，连接断开后自动重连
+     *
+     * @param addr
+     * @param credentialsOpt
+     * @param intervalMillis 采集间隔
+     * @param capacity       每个时间序列保存的采样数
+     * @return
+     */
+    public static JMXMetricsPoller forRemote(final String addr, final Optional<JMXUtils.JMXCredentials> credentialsOpt,
+                                             long intervalMillis, int capacity) {
+        return new JMXMetricsPoller(new ConnectionSource() {
+            @Override
+            public Optional<MBeanServerConnection> get() {
+                Optional<JMXConnector> connector = JMXUtils.pooledRemoteConnect(addr, credentialsOpt);
+                if (!connector.isPresent()) {
+                    return Optional.absent();
+                }
+                return JMXUtils.getConnection(connector.get());
+            }
+        }, intervalMillis, capacity);
+    }
+
+    /**
+     * 添加要采集的MBean和属性，非数值属性会被忽略
+     *
+     * @param pattern
+     * @param attributeNames
+     */
+    public void addPattern(ObjectName pattern, String... attributeNames) {
+        groups.add(new PatternGroup(pattern, attributeNames));
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "jmx-poller");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pollOnce();
+                } catch (Exception e) {
+                    LOGGER.error("poll failed", e);
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdownNow();
+            fetchExecutor = null;
+        }
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    private synchronized ExecutorService fetchExecutor() {
+        if (fetchExecutor == null) {
+            fetchExecutor = JMXUtils.newBulkExecutor(DEFAULT_PARALLELISM);
+        }
+        return fetchExecutor;
+    }
+
+    /**
+     * 采集一次，同一次采集的所有采样使用相同的时间戳
+     * 所有pattern共用一个采集间隔的时间，每个pattern平分剩余的时间，慢的pattern不会让一次采集超过采集间隔
+     */
+    public void pollOnce() {
+        Optional<MBeanServerConnection> conn = connectionSource.get();
+        if (!conn.isPresent()) {
+            LOGGER.warn("poll skipped, connection unavailable");
+            return;
+        }
+
+        ExecutorService executor = fetchExecutor();
+        long timestamp = System.currentTimeMillis();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        PatternGroup[] snapshot = groups.toArray(new PatternGroup[0]);
+        int remainingGroups = snapshot.length;
+        for (PatternGroup group : snapshot) {
+            long budget = Math.max(0, deadline - System.nanoTime()) / remainingGroups--;
+            Map<ObjectName, List<Attribute>> result = JMXUtils.getAttributeLists(conn.get(), group.pattern,
+                    group.attributeNames, executor, budget, TimeUnit.NANOSECONDS);
+            for (Map.Entry<ObjectName, List<Attribute>> entry : result.entrySet()) {
+                BeanSeries bean = group.getBeanSeries(entry.getKey(), capacity);
+                bean.lastSeen = timestamp;
+                for (Attribute attr : entry.getValue()) {
+                    Integer index = group.indexes.get(attr.getName());
+                    if (index != null && attr.getValue() instanceof Number) {
+                        bean.series[index].add(timestamp, ((Number) attr.getValue()).doubleValue());
+                    }
+                }
+            }
+            group.removeStale(timestamp - STALE_INTERVALS * intervalMillis);
+        }
+    }
+
+    /**
+     * @param objectName
+     * @param attributeName
+     * @return 不存在时返回absent
+     */
+    public Optional<TimeSeries> getSeries(ObjectName objectName, String attributeName) {
+        for (PatternGroup group : groups) {
+            BeanSeries bean = group.beans.get(objectName);
+            Integer index = group.indexes.get(attributeName);
+            if (bean != null && index != null) {
+                return Optional.of(bean.series[index]);
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * 获取匹配pattern的所有MBean的某个属性的时间序列
+     *
+     * @param pattern
+     * @param attributeName
+     * @return
+     */
+    public Map<ObjectName, TimeSeries> getSeriesByPattern(ObjectName pattern, String attributeName) {
+        Map<ObjectName, TimeSeries> result = new HashMap<ObjectName, TimeSeries>();
+        for (PatternGroup group : groups) {
+            Integer index = group.indexes.get(attributeName);
+            if (index == null) {
+                continue;
+            }
+            for (Map.Entry<ObjectName, BeanSeries> entry : group.beans.entrySet()) {
+                if (pattern.apply(entry.getKey()) && !result.containsKey(entry.getKey())) {
+                    result.put(entry.getKey(), entry.getValue().series[index]);
+                }
+            }
+        }
+        return result;
+    }
+
+    public int getSeriesCount() {
+        int count = 0;
+        for (PatternGroup group : groups) {
+            count += group.beans.size() * group.attributeNames.length;
+        }
+        return count;
+    }
+
+    private interface ConnectionSource {
+        Optional<MBeanServerConnection> get();
+    }
+
+    private static class PatternGroup {
+        private final ObjectName pattern;
+        private final String[] attributeNames;
+        private final Map<String, Integer> indexes;
+        private final ConcurrentMap<ObjectName, BeanSeries> beans = new ConcurrentHashMap<ObjectName, BeanSeries>();
+
+        PatternGroup(ObjectName pattern, String[] attributeNames) {
+            this.pattern = pattern;
+            this.attributeNames = attributeNames.clone();
+            this.indexes = new HashMap<String, Integer>(attributeNames.length * 2);
+            for (int i = 0; i < attributeNames.length; i++) {
+                indexes.put(attributeNames[i], i);
+            }
+        }
+
+        BeanSeries getBeanSeries(ObjectName objectName, int capacity) {
+            BeanSeries bean = beans.get(objectName);
+            if (bean == null) {
+                bean = new BeanSeries(attributeNames.length, capacity);
+                beans.put(objectName, bean);
+            }
+            return bean;
+        }
+
+        void removeStale(long staleBefore) {
+            Iterator<BeanSeries> it = beans.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().lastSeen < staleBefore) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static class BeanSeries {
+        private final TimeSeries[] series;
+        private volatile long lastSeen;
+
+        BeanSeries(int attributeCount, int capacity) {
+            this.series = new TimeSeries[attributeCount];
+            for (int i = 0; i < attributeCount; i++) {
+                series[i] = new TimeSeries(capacity);
+            }
+        }
+    }
+
+    /**
+     * 固定容量的时间序列，写满后覆盖最旧的采样
+     * 窗口以最新一个采样的时间戳为终点
+     */
+    public static class TimeSeries {
+        private final long[] timestamps;
+        private final double[] values;
+        //下一个写入位置
+        private int head;
+        private int size;
+
+        TimeSeries(int capacity) {
+            this.timestamps = new long[capacity];
+            this.values = new double[capacity];
+        }
+
+        synchronized void add(long timestamp, double value) {
+            timestamps[head] = timestamp;
+            values[head] = value;
+            head = (head + 1) % timestamps.length;
+            if (size < timestamps.length) {
+                size++;
+            }
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+
+        public synchronized long lastTimestamp() {
+            return size == 0 ? 0 : timestamps[index(0)];
+        }
+
+        public synchronized double last() {
+            return size == 0 ? Double.NaN : values[index(0)];
+        }
+
+        /**
+         * 窗口内最新采样与最旧采样的差值
+         *
+         * @param windowMillis
+         * @return 采样不足两个时返回NaN
+         */
+        public synchronized double delta(long windowMillis) {
+            int oldest = oldestInWindow(windowMillis);
+            return oldest <= 0 ? Double.NaN : values[index(0)] - values[index(oldest)];
+        }
+
+        /**
+         * 窗口内每秒的平均增长，用于计数器类属性
+         * 计数器重置（值变小）时只累计重置后的增长
+         *
+         * @param windowMillis
+         * @return 采样不足两个时返回NaN
+         */
+        public synchronized double rate(long windowMillis) {
+            int oldest = oldestInWindow(windowMillis);
+            if (oldest <= 0) {
+                return Double.NaN;
+            }
+
+            double increase = 0;
+            for (int i = oldest; i > 0; i--) {
+                double prev = values[index(i)];
+                double cur = values[index(i - 1)];
+                increase += cur >= prev ? cur - prev : cur;
+            }
+            long elapsed = timestamps[index(0)] - timestamps[index(oldest)];
+            return elapsed <= 0 ? Double.NaN : increase * 1000 / elapsed;
+        }
+
+        public synchronized double average(long windowMillis) {
+            int oldest = oldestInWindow(windowMillis);
+            if (oldest < 0) {
+                return Double.NaN;
+            }
+            double sum = 0;
+            for (int i = 0; i <= oldest; i++) {
+                sum += values[index(i)];
+            }
+            return sum / (oldest + 1);
+        }
+
+        public synchronized double min(long windowMillis) {
+            int oldest = oldestInWindow(windowMillis);
+            double min = Double.NaN;
+            for (int i = 0; i <= oldest; i++) {
+                double v = values[index(i)];
+                if (!(v >= min)) {
+                    min = v;
+                }
+            }
+            return min;
+        }
+
+        public synchronized double max(long windowMillis) {
+            int oldest = oldestInWindow(windowMillis);
+            double max = Double.NaN;
+            for (int i = 0; i <= oldest; i++) {
+                double v = values[index(i)];
+                if (!(v <= max)) {
+                    max = v;
+                }
+            }
+            return max;
+        }
+
+        /**
+         * 按时间顺序复制最近的采样
+         *
+         * @param timestampsOut
+         * @param valuesOut
+         * @return 复制的采样数
+         */
+        public synchronized int copyTo(long[] timestampsOut, double[] valuesOut) {
+            int n = Math.min(size, Math.min(timestampsOut.length, valuesOut.length));
+            for (int i = 0; i < n; i++) {
+                int src = index(n - 1 - i);
+                timestampsOut[i] = timestamps[src];
+                valuesOut[i] = values[src];
+            }
+            return n;
+        }
+
+        /**
+         * @param age 0为最新的采样
+         */
+        private int index(int age) {
+            int i = head - 1 - age;
+            return i < 0 ? i + timestamps.length : i;
+        }
+
+        /**
+         * @return 窗口内最旧采样的age，没有采样时返回-1
+         */
+        private int oldestInWindow(long windowMillis) {
+            if (size == 0) {
+                return -1;
+            }
+            long from = timestamps[index(0)] - windowMillis;
+            int oldest = 0;
+            while (oldest + 1 < size && timestamps[index(oldest + 1)] >= from) {
+                oldest++;
+            }
+            return oldest;
+        }
+    }
+}
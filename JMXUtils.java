@@ -6,14 +6,33 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.management.*;
+import javax.management.relation.MBeanServerNotificationFilter;
+import javax.management.remote.JMXConnectionNotification;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author yuan.shichao
@@ -23,6 +42,30 @@ public class JMXUtils {
 
     private static final String KAFKA_NAME = "kafka.Kafka";
 
+    private static final int DEFAULT_BULK_PARALLELISM = 16;
+    private static final long DEFAULT_BULK_TIMEOUT_MILLIS = 8 * 1000;
+
+    private static final ExecutorService BULK_EXECUTOR = newBulkExecutor(DEFAULT_BULK_PARALLELISM);
+
+    private static final String REMOTE_KEY_PREFIX = "remote:";
+    private static final String LOCAL_KEY_PREFIX = "local:";
+    private static final int MAX_CONCURRENT_CONNECTS = 4;
+    private static final long RECONNECT_BACKOFF_INITIAL_MILLIS = 1000;
+    private static final long RECONNECT_BACKOFF_MAX_MILLIS = 60 * 1000;
+    //closePooled之后延迟这么久才真正关闭，刚从池中拿到连接的线程可以完成正在进行的调用
+    private static final long CLOSE_GRACE_MILLIS = 10 * 1000;
+
+    private static final ConcurrentMap<String, PooledConnector> CONNECTOR_POOL =
+            new ConcurrentHashMap<String, PooledConnector>();
+    //vmid -> localConnectorAddress
+    private static final ConcurrentMap<String, String> LOCAL_ADDRESS_CACHE = new ConcurrentHashMap<String, String>();
+    //限制同时进行的连接数，避免批量重连时压垮本机或者被连接的broker
+    private static final Semaphore CONNECT_PERMITS = new Semaphore(MAX_CONCURRENT_CONNECTS);
+
+    //connection -> (objectName -> 属性结构)，MBean注册/注销时失效
+    private static final Map<MBeanServerConnection, ConcurrentMap<ObjectName, AttributeSchema>> METADATA_CACHE =
+            new WeakHashMap<MBeanServerConnection, ConcurrentMap<ObjectName, AttributeSchema>>();
+
     /**
      * 获取本地VirtualMachineDescriptor
      *
@@ -81,19 +124,7 @@ public class JMXUtils {
             return Optional.absent();
         }
 
-        String localConnectorAddress = null;
-        try {
-            VirtualMachine vm = VirtualMachine.attach(vmd);
-            localConnectorAddress = vm.getAgentProperties().getProperty("com.sun.management.jmxremote.localConnectorAddress");
-            if (localConnectorAddress == null) {
-                String agent = vm.getSystemProperties().getProperty("java.home") + File.separator + "lib" + File.separator + "management-agent.jar";
-                vm.loadAgent(agent);
-                localConnectorAddress = vm.getAgentProperties().getProperty("com.sun.management.jmxremote.localConnectorAddress");
-            }
-        } catch (Exception e) {
-            LOGGER.error("get localConnectorAddress failed", e);
-        }
-
+        String localConnectorAddress = getLocalConnectorAddress(vmd);
         if (localConnectorAddress == null) {
             return Optional.absent();
         }
@@ -114,14 +145,7 @@ public class JMXUtils {
      * @return
      */
     public static Optional<JMXConnector> localConnect(String vmid) {
-        List<VirtualMachineDescriptor> localVms = VirtualMachine.list();
-        VirtualMachineDescriptor vmd = null;
-        for (VirtualMachineDescriptor item : localVms) {
-            if (item.id().equals(vmid)) {
-                vmd = item;
-                break;
-            }
-        }
+        VirtualMachineDescriptor vmd = findLocalVM(vmid);
         if (vmd == null) {
             LOGGER.error("vmid {} not found", vmid);
             return Optional.absent();
@@ -131,6 +155,140 @@ public class JMXUtils {
 
     }
 
+    /**
+     * 从连接池获取远程JMXConnector
+     * 同一个地址复用同一个连接，连接断开后按退避间隔重连
+     * 不要close返回的JMXConnector，使用closePooledRemote
+     *
+     * @param addr
+     * @param credentialsOpt
+     * @return 连接失败或者在退避间隔内时返回absent
+     */
+    public static Optional<JMXConnector> pooledRemoteConnect(final String addr, final Optional<JMXCredentials> credentialsOpt) {
+        return getPooled(REMOTE_KEY_PREFIX + addr, new Callable<Optional<JMXConnector>>() {
+            @Override
+            public Optional<JMXConnector> call() {
+                return remoteConnect(addr, credentialsOpt);
+            }
+        });
+    }
+
+    /**
+     * 从连接池获取本地JMXConnector
+     * localConnectorAddress会被缓存，不会每次都attach和加载management-agent.jar
+     * 不要close返回的JMXConnector，使用closePooledLocal
+     *
+     * @param vmid
+     * @return 连接失败或者在退避间隔内时返回absent
+     */
+    public static Optional<JMXConnector> pooledLocalConnect(final String vmid) {
+        return getPooled(LOCAL_KEY_PREFIX + vmid, new Callable<Optional<JMXConnector>>() {
+            @Override
+            public Optional<JMXConnector> call() {
+                return localConnectByCachedAddress(vmid);
+            }
+        });
+    }
+
+    /**
+     * 关闭并移除连接池中的远程JMXConnector
+     * 其他线程可能刚拿到这个连接，延迟CLOSE_GRACE_MILLIS之后才真正关闭，之后的获取会建立新的连接
+     *
+     * @param addr
+     */
+    public static void closePooledRemote(String addr) {
+        closePooled(REMOTE_KEY_PREFIX + addr);
+    }
+
+    /**
+     * 关闭并移除连接池中的本地JMXConnector，与closePooledRemote一样延迟关闭
+     *
+     * @param vmid
+     */
+    public static void closePooledLocal(String vmid) {
+        LOCAL_ADDRESS_CACHE.remove(vmid);
+        closePooled(LOCAL_KEY_PREFIX + vmid);
+    }
+
+    /**
+     * 从池中拿到的PooledConnector可能已经被closePooled移除，这时重新从池中获取，不在移除的对象上重连
+     */
+    private static Optional<JMXConnector> getPooled(String key, Callable<Optional<JMXConnector>> connectFn) {
+        while (true) {
+            PooledConnector pooled = getPooledConnector(key);
+            Optional<JMXConnector> connector = pooled.get(connectFn);
+            if (connector != null) {
+                return connector;
+            }
+            CONNECTOR_POOL.remove(key, pooled);
+        }
+    }
+
+    private static PooledConnector getPooledConnector(String key) {
+        PooledConnector pooled = CONNECTOR_POOL.get(key);
+        if (pooled == null) {
+            CONNECTOR_POOL.putIfAbsent(key, new PooledConnector(key));
+            pooled = CONNECTOR_POOL.get(key);
+        }
+        return pooled;
+    }
+
+    private static void closePooled(String key) {
+        PooledConnector pooled = CONNECTOR_POOL.remove(key);
+        if (pooled != null) {
+            pooled.close();
+        }
+    }
+
+    private static Optional<JMXConnector> localConnectByCachedAddress(String vmid) {
+        String address = LOCAL_ADDRESS_CACHE.get(vmid);
+        if (address == null) {
+            VirtualMachineDescriptor vmd = findLocalVM(vmid);
+            if (vmd == null) {
+                LOGGER.error("vmid {} not found", vmid);
+                return Optional.absent();
+            }
+            address = getLocalConnectorAddress(vmd);
+            if (address == null) {
+                return Optional.absent();
+            }
+            LOCAL_ADDRESS_CACHE.put(vmid, address);
+        }
+
+        try {
+            return Optional.of(JMXConnectorFactory.connect(new JMXServiceURL(address)));
+        } catch (Exception e) {
+            LOGGER.error("connect to {} @ {} failed", vmid, address, e);
+            LOCAL_ADDRESS_CACHE.remove(vmid);
+            return Optional.absent();
+        }
+    }
+
+    private static String getLocalConnectorAddress(VirtualMachineDescriptor vmd) {
+        String localConnectorAddress = null;
+        try {
+            VirtualMachine vm = VirtualMachine.attach(vmd);
+            localConnectorAddress = vm.getAgentProperties().getProperty("com.sun.management.jmxremote.localConnectorAddress");
+            if (localConnectorAddress == null) {
+                String agent = vm.getSystemProperties().getProperty("java.home") + File.separator + "lib" + File.separator + "management-agent.jar";
+                vm.loadAgent(agent);
+                localConnectorAddress = vm.getAgentProperties().getProperty("com.sun.management.jmxremote.localConnectorAddress");
+            }
+        } catch (Exception e) {
+            LOGGER.error("get localConnectorAddress failed", e);
+        }
+        return localConnectorAddress;
+    }
+
+    private static VirtualMachineDescriptor findLocalVM(String vmid) {
+        for (VirtualMachineDescriptor item : VirtualMachine.list()) {
+            if (item.id().equals(vmid)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
     /**
      * 获取MBeanServerConnection
      *
@@ -175,18 +333,216 @@ public class JMXUtils {
      */
     public static List<Attribute> getAttributeList(MBeanServerConnection conn, ObjectName objectName) {
         try {
-            MBeanInfo mBeanInfo = conn.getMBeanInfo(objectName);
-            MBeanAttributeInfo[] attributeInfoArray = mBeanInfo.getAttributes();
+            return fetchAttributeList(conn, objectName);
+        } catch (Exception e) {
+            LOGGER.error("getAttributeList failed [objectName: {}]", objectName, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 并发获取所有匹配pattern的MBean的属性
+     *
+     * @param conn
+     * @param pattern
+     * @return
+     * @see #getAttributeLists(MBeanServerConnection, ObjectName, ExecutorService, long, TimeUnit)
+     */
+    public static Map<ObjectName, List<Attribute>> getAttributeLists(MBeanServerConnection conn, ObjectName pattern) {
+        return getAttributeLists(conn, pattern, BULK_EXECUTOR, DEFAULT_BULK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 并发获取所有匹配pattern的MBean的属性
+     *
+     * @param conn
+     * @param pattern
+     * @param executor
+     * @param timeout
+     * @param unit
+     * @return
+     * @see #getAttributeLists(MBeanServerConnection, ObjectName, String[], ExecutorService, long, TimeUnit)
+     */
+    public static Map<ObjectName, List<Attribute>> getAttributeLists(MBeanServerConnection conn, ObjectName pattern,
+                                                                      ExecutorService executor, long timeout, TimeUnit unit) {
+        return getAttributeLists(conn, pattern, null, executor, timeout, unit);
+    }
+
+    /**
+     * 并发获取所有匹配pattern的MBean的属性
+     * 超时或者失败的MBean不在结果中，返回其余MBean的部分结果
+     *
+     * @param conn
+     * @param pattern        为null时匹配所有MBean
+     * @param attributeNames 要获取的属性，为null时获取所有属性
+     * @param executor       执行获取任务的线程池，并发度由线程池大小决定
+     * @param timeout        整个调用的超时时间
+     * @param unit
+     * @return
+     */
+    public static Map<ObjectName, List<Attribute>> getAttributeLists(final MBeanServerConnection conn, ObjectName pattern,
+                                                                      final String[] attributeNames, ExecutorService executor,
+                                                                      long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        Set<ObjectName> names;
+        try {
+            names = conn.queryNames(pattern, null);
+        } catch (Exception e) {
+            LOGGER.error("queryNames failed [pattern: {}]", pattern, e);
+            return Collections.emptyMap();
+        }
+
+        List<ObjectName> nameList = new ArrayList<ObjectName>(names);
+        List<Future<List<Attribute>>> futures = new ArrayList<Future<List<Attribute>>>(nameList.size());
+        for (final ObjectName objectName : nameList) {
+            futures.add(executor.submit(new Callable<List<Attribute>>() {
+                @Override
+                public List<Attribute> call() throws Exception {
+                    if (attributeNames == null) {
+                        return fetchAttributeList(conn, objectName);
+                    }
+                    return conn.getAttributes(objectName, attributeNames).asList();
+                }
+            }));
+        }
+
+        Map<ObjectName, List<Attribute>> result = new HashMap<ObjectName, List<Attribute>>(nameList.size() * 2);
+        int failed = 0;
+        int timedOut = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<List<Attribute>> future = futures.get(i);
+            try {
+                result.put(nameList.get(i), future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                timedOut++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                timedOut++;
+            } catch (Exception e) {
+                LOGGER.debug("getAttributeList failed [objectName: {}]", nameList.get(i), e);
+                failed++;
+            }
+        }
+
+        if (failed > 0 || timedOut > 0) {
+            LOGGER.warn("getAttributeLists partial result [pattern: {}, total: {}, failed: {}, timeout: {}]",
+                    pattern, nameList.size(), failed, timedOut);
+        }
+        return result;
+    }
+
+    /**
+     * 创建批量获取属性使用的线程池
+     *
+     * @param parallelism 最大并发数
+     * @return
+     */
+    public static ExecutorService newBulkExecutor(int parallelism) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "jmx-bulk-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static List<Attribute> fetchAttributeList(MBeanServerConnection conn, ObjectName objectName) throws Exception {
+        return getAttributes(conn, objectName, getSchema(conn, objectName)).asList();
+    }
+
+    /**
+     * 失败时丢弃缓存的属性结构，下次重新获取MBeanInfo
+     */
+    private static AttributeList getAttributes(MBeanServerConnection conn, ObjectName objectName,
+                                               AttributeSchema schema) throws Exception {
+        try {
+            return conn.getAttributes(objectName, schema.names);
+        } catch (Exception e) {
+            getSchemaCache(conn).remove(objectName);
+            throw e;
+        }
+    }
 
-            String[] attributeStrArray = new String[attributeInfoArray.length];
-            for (int i = 0; i < attributeInfoArray.length; i++) {
-                attributeStrArray[i] = attributeInfoArray[i].getName();
+    private static AttributeSchema getSchema(MBeanServerConnection conn, ObjectName objectName) throws Exception {
+        ConcurrentMap<ObjectName, AttributeSchema> schemas = getSchemaCache(conn);
+        AttributeSchema schema = schemas.get(objectName);
+        if (schema == null) {
+            schema = new AttributeSchema(conn.getMBeanInfo(objectName).getAttributes());
+            schemas.put(objectName, schema);
+        }
+        return schema;
+    }
+
+    private static ConcurrentMap<ObjectName, AttributeSchema> getSchemaCache(MBeanServerConnection conn) {
+        synchronized (METADATA_CACHE) {
+            ConcurrentMap<ObjectName, AttributeSchema> schemas = METADATA_CACHE.get(conn);
+            if (schemas == null) {
+                schemas = new ConcurrentHashMap<ObjectName, AttributeSchema>();
+                METADATA_CACHE.put(conn, schemas);
+                listenRegistration(conn, schemas);
             }
+            return schemas;
+        }
+    }
 
-            return conn.getAttributes(objectName, attributeStrArray).asList();
+    /**
+     * MBean注册或注销时，丢弃对应的属性结构
+     * 监听失败时只依赖getAttributes失败后的重新获取
+     */
+    private static void listenRegistration(MBeanServerConnection conn,
+                                           final ConcurrentMap<ObjectName, AttributeSchema> schemas) {
+        MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+        filter.enableAllObjectNames();
+        try {
+            conn.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, new NotificationListener() {
+                @Override
+                public void handleNotification(Notification notification, Object handback) {
+                    if (notification instanceof MBeanServerNotification) {
+                        schemas.remove(((MBeanServerNotification) notification).getMBeanName());
+                    }
+                }
+            }, filter, null);
         } catch (Exception e) {
-            LOGGER.error("getAttributeList failed [objectName: {}]", objectName, e);
-            return Collections.emptyList();
+            LOGGER.warn("listen MBean registration failed", e);
+        }
+    }
+
+    /**
+     * 获取MBean的所有属性，可以按属性名O(1)查找
+     *
+     * @param conn
+     * @param objectName
+     * @return
+     */
+    public static Optional<AttributeRecord> getAttributeRecord(MBeanServerConnection conn, ObjectName objectName) {
+        try {
+            AttributeSchema schema = getSchema(conn, objectName);
+            AttributeList attributes = getAttributes(conn, objectName, schema);
+            return Optional.of(new AttributeRecord(objectName, schema, attributes));
+        } catch (Exception e) {
+            LOGGER.error("getAttributeRecord failed [objectName: {}]", objectName, e);
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * 清除connection的MBeanInfo缓存，connection关闭后调用
+     *
+     * @param conn
+     */
+    public static void clearMetadataCache(MBeanServerConnection conn) {
+        synchronized (METADATA_CACHE) {
+            METADATA_CACHE.remove(conn);
         }
     }
 
@@ -206,6 +562,233 @@ public class JMXUtils {
         return null;
     }
 
+    /**
+     * 连接池中的一个连接
+     * 通过JMXConnectionNotification发现连接断开，下次获取时按指数退避重连
+     */
+    private static class PooledConnector implements NotificationListener {
+        private final String key;
+        private volatile JMXConnector connector;
+        private volatile boolean broken;
+        private int failures;
+        private long nextAttemptAt;
+        //已经被closePooled移除
+        private boolean closed;
+
+        PooledConnector(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return 已经关闭时返回null
+         */
+        synchronized Optional<JMXConnector> get(Callable<Optional<JMXConnector>> connectFn) {
+            if (closed) {
+                return null;
+            }
+            if (connector != null && !broken) {
+                return Optional.of(connector);
+            }
+
+            long now = System.currentTimeMillis();
+            if (now < nextAttemptAt) {
+                return Optional.absent();
+            }
+            closeConnector();
+
+            Optional<JMXConnector> connected = Optional.absent();
+            try {
+                CONNECT_PERMITS.acquire();
+                try {
+                    connected = connectFn.call();
+                } finally {
+                    CONNECT_PERMITS.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Optional.absent();
+            } catch (Exception e) {
+                LOGGER.error("connect {} failed", key, e);
+            }
+
+            if (!connected.isPresent()) {
+                failures++;
+                long backoff = Math.min(RECONNECT_BACKOFF_MAX_MILLIS,
+                        RECONNECT_BACKOFF_INITIAL_MILLIS << Math.min(failures - 1, 16));
+                nextAttemptAt = System.currentTimeMillis() + backoff;
+                LOGGER.warn("connect {} failed, retry after {}ms [failures: {}]", key, backoff, failures);
+                return connected;
+            }
+
+            connector = connected.get();
+            broken = false;
+            failures = 0;
+            nextAttemptAt = 0;
+            connector.addConnectionNotificationListener(this, null, connector);
+            return connected;
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            String type = notification.getType();
+            if ((JMXConnectionNotification.FAILED.equals(type) || JMXConnectionNotification.CLOSED.equals(type))
+                    && handback == connector) {
+                LOGGER.warn("connector {} {}", key, type);
+                broken = true;
+            }
+        }
+
+        /**
+         * 延迟关闭当前的连接，之后get返回null
+         */
+        synchronized void close() {
+            closed = true;
+            final JMXConnector closing = connector;
+            if (closing == null) {
+                return;
+            }
+            connector = null;
+            try {
+                closing.removeConnectionNotificationListener(this);
+            } catch (Exception e) {
+                LOGGER.debug("removeConnectionNotificationListener failed", e);
+            }
+            CloserHolder.CLOSER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        closing.close();
+                    } catch (Exception e) {
+                        LOGGER.debug("close connector {} failed", key, e);
+                    }
+                }
+            }, CLOSE_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private void closeConnector() {
+            if (connector == null) {
+                return;
+            }
+            try {
+                connector.removeConnectionNotificationListener(this);
+            } catch (Exception e) {
+                LOGGER.debug("removeConnectionNotificationListener failed", e);
+            }
+            try {
+                connector.close();
+            } catch (Exception e) {
+                LOGGER.debug("close connector {} failed", key, e);
+            }
+            connector = null;
+        }
+    }
+
+    private static class CloserHolder {
+        private static final ScheduledExecutorService CLOSER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "jmx-connector-closer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * MBean的可读属性名及其下标，同一个MBean的多次读取共享
+     */
+    private static class AttributeSchema {
+        private final String[] names;
+        private final Map<String, Integer> indexes;
+
+        AttributeSchema(MBeanAttributeInfo[] attributeInfoArray) {
+            List<String> readable = new ArrayList<String>(attributeInfoArray.length);
+            for (MBeanAttributeInfo info : attributeInfoArray) {
+                if (info.isReadable()) {
+                    readable.add(info.getName());
+                }
+            }
+            this.names = readable.toArray(new String[readable.size()]);
+            this.indexes = new HashMap<String, Integer>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                indexes.put(names[i], i);
+            }
+        }
+    }
+
+    /**
+     * 一次读取的MBean属性，按属性名或下标访问
+     * 读取失败的属性值为null
+     */
+    public static class AttributeRecord {
+        private final ObjectName objectName;
+        private final AttributeSchema schema;
+        private final Object[] values;
+
+        AttributeRecord(ObjectName objectName, AttributeSchema schema, AttributeList attributes) {
+            this.objectName = objectName;
+            this.schema = schema;
+            this.values = new Object[schema.names.length];
+            for (Attribute attr : attributes.asList()) {
+                Integer index = schema.indexes.get(attr.getName());
+                if (index != null) {
+                    values[index] = attr.getValue();
+                }
+            }
+        }
+
+        public ObjectName getObjectName() {
+            return objectName;
+        }
+
+        /**
+         * @param name
+         * @return 属性值，不存在时返回null
+         */
+        public Object get(String name) {
+            Integer index = schema.indexes.get(name);
+            return index == null ? null : values[index];
+        }
+
+        /**
+         * @param name
+         * @return 属性下标，不存在时返回-1
+         */
+        public int indexOf(String name) {
+            Integer index = schema.indexes.get(name);
+            return index == null ? -1 : index;
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        public String getName(int index) {
+            return schema.names[index];
+        }
+
+        public Object getValue(int index) {
+            return values[index];
+        }
+
+        public List<Attribute> asList() {
+            List<Attribute> list = new ArrayList<Attribute>(values.length);
+            for (int i = 0; i < values.length; i++) {
+                list.add(new Attribute(schema.names[i], values[i]));
+            }
+            return list;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("AttributeRecord{");
+            sb.append("objectName=").append(objectName);
+            sb.append(", attributes=").append(asList());
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
     public static class JMXCredentials {
         private final String username;
         private final String password;
@@ -1,8 +1,37 @@
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import redis.clients.jedis.Client;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
 
 
 /**
@@ -11,32 +40,143 @@ import redis.clients.jedis.Jedis;
  * 适用于较大的List
  * 线程不安全
  * 
+ * 预取模式下，消费当前分片的同时在后台线程中用pipeline读取后面的若干个分片，
+ * 此时Jedis连接被后台线程使用，迭代结束或者调用close之前不要在其他地方使用该连接
+ * 
+ * 自适应模式下，根据已读取分片的平均元素大小和lrange耗时调整分片大小，
+ * 使每次lrange的响应接近目标字节数，元素小时减少往返次数，元素大时避免单次响应过大阻塞Redis
+ * 
+ * 默认按下标读取，迭代期间List被修改时元素会重复或遗漏，其他读取模式见{@link Mode}
+ * 
+ * 不需要保留元素时可以用{@link #forEach}，元素以ByteBuffer的形式回调，不为每个元素分配byte[]
+ * 
  * @author yuanshichao
  *
  */
-public class RedisListIterator implements Iterator<byte[]> {
+public class RedisListIterator implements Iterator<byte[]>, Closeable {
     
     
     private static final int BATCH_SIZE = 1000;
     
+    //自适应模式下分片大小的范围
+    private static final int MIN_BATCH_SIZE = 16;
+    private static final int MAX_BATCH_SIZE = 64 * 1024;
+    
+    //单次lrange扣除网络往返后超过这个耗时就缩小分片
+    private static final long MAX_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    //快照key的过期时间，防止迭代器没有close时快照残留
+    private static final int SNAPSHOT_TTL_SECONDS = 24 * 3600;
+    
+    //forEach读取响应的初始缓冲区大小，响应更大时扩容
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    
+    private static final byte[] SNAPSHOT_SCRIPT = SafeEncoder.encode(
+            "if redis.call('COPY', KEYS[1], KEYS[2]) == 1 then "
+            + "redis.call('EXPIRE', KEYS[2], ARGV[1]) return 1 end return 0");
+    
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "redis-list-prefetch");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    
     private Jedis client;
     private byte[] key;
     
     //当前读取的list分片
     private List<byte[]> slice;
     
-    //当前读取第几个分片。 zero-based
-    private int sliceIndex;
+    private final Mode mode;
+    
+    //SNAPSHOT模式下的快照key，删除后为null
+    private byte[] snapshotKey;
+    
+    //下一个要读取的分片的起始位置，TAIL模式下是距离List尾部的位置
+    private long offset;
     
     //当前读取分片中，元素的位置。 zero-based
     private int index;
     
+    //下一个要读取的分片的大小
+    private int batchSize;
+    
+    //每次lrange响应的目标字节数，0表示固定分片大小
+    private final int targetReplyBytes;
+    
+    //见过的最小lrange耗时，作为网络往返的基线
+    private long minSliceNanos = Long.MAX_VALUE;
+    
+    //每次预取的分片数，0表示不预取
+    private final int prefetchSlices;
+    
+    //已经预取但还没有消费的分片
+    private final Deque<List<byte[]>> fetched;
+    
+    //正在进行的预取
+    private Future<Prefetched> pending;
+    
+    //已经读到list末尾
+    private boolean exhausted;
+    
     public RedisListIterator(Jedis client, byte[] key) {
+        this(client, key, 0);
+    }
+    
+    /**
+     * @param client
+     * @param key
+     * @param prefetchSlices 每次在后台pipeline读取的分片数，0表示不预取
+     */
+    public RedisListIterator(Jedis client, byte[] key, int prefetchSlices) {
+        this(client, key, prefetchSlices, 0);
+    }
+    
+    /**
+     * @param client
+     * @param key
+     * @param prefetchSlices 每次在后台pipeline读取的分片数，0表示不预取
+     * @param targetReplyBytes 每次lrange响应的目标字节数，0表示固定分片大小
+     */
+    public RedisListIterator(Jedis client, byte[] key, int prefetchSlices, int targetReplyBytes) {
+        this(client, key, prefetchSlices, targetReplyBytes, Mode.OFFSET);
+    }
+    
+    /**
+     * @param client
+     * @param key
+     * @param prefetchSlices 每次在后台pipeline读取的分片数，0表示不预取，CONSUME模式不支持预取
+     * @param targetReplyBytes 每次lrange响应的目标字节数，0表示固定分片大小
+     * @param mode 读取模式
+     */
+    public RedisListIterator(Jedis client, byte[] key, int prefetchSlices, int targetReplyBytes, Mode mode) {
+        if (mode == Mode.CONSUME && prefetchSlices > 0) {
+            throw new IllegalArgumentException("CONSUME mode does not support prefetch");
+        }
+        
         this.slice = null;
-        this.sliceIndex = -1;
+        this.offset = 0;
         
         this.client = client;
-        this.key = key;
+        this.mode = mode;
+        if (mode == Mode.SNAPSHOT) {
+            this.snapshotKey = snapshot(client, key);
+            this.key = snapshotKey;
+        } else {
+            this.key = key;
+        }
+        
+        this.batchSize = BATCH_SIZE;
+        this.targetReplyBytes = Math.max(0, targetReplyBytes);
+        
+        this.prefetchSlices = Math.max(0, prefetchSlices);
+        this.fetched = new ArrayDeque<List<byte[]>>();
+        if (this.prefetchSlices > 0) {
+            pending = prefetch();
+        }
         
         fetchItems();
     }
@@ -53,7 +193,7 @@ public class RedisListIterator implements Iterator<byte[]> {
             return false;
         }
         
-        if ((index+1) >= BATCH_SIZE) {
+        if ((index+1) >= slice.size() && (!exhausted || !fetched.isEmpty())) {
             fetchItems();
         }
         
@@ -64,16 +204,517 @@ public class RedisListIterator implements Iterator<byte[]> {
         return true;
     }
     
+    /**
+     * @return 下一个要读取的分片的大小
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+    
     private void fetchItems() {
-        sliceIndex++;
-        slice = client.lrange(key, sliceIndex * BATCH_SIZE, (sliceIndex+1) * BATCH_SIZE -1);
         index = -1;
-        //LOG.info("RedisListIterator fetchItems [key: " + new String(key) + ", sliceIndex: " + sliceIndex + ", sliceSize: " + slice.size() + "]" );
+        if (prefetchSlices == 0) {
+            int size = batchSize;
+            long start = System.nanoTime();
+            if (mode == Mode.CONSUME) {
+                slice = consume(size);
+            } else {
+                slice = ordered(client.lrange(key, rangeStart(offset, size), rangeEnd(offset, size)));
+                offset += size;
+            }
+            exhausted = slice.size() < size;
+            adjustBatchSize(size, slice.size(), byteCount(slice), System.nanoTime() - start);
+            if (exhausted) {
+                dropSnapshot();
+            }
+            //LOG.info("RedisListIterator fetchItems [key: " + new String(key) + ", offset: " + offset + ", sliceSize: " + slice.size() + "]" );
+            return;
+        }
+        
+        if (fetched.isEmpty() && pending != null) {
+            awaitPrefetch();
+        }
+        slice = fetched.isEmpty() ? Collections.<byte[]>emptyList() : fetched.poll();
+        
+        //消费当前分片的同时读取后面的分片
+        if (pending == null && !exhausted) {
+            pending = prefetch();
+        }
     }
-
+    
+    private Future<Prefetched> prefetch() {
+        final long start = offset;
+        final int size = batchSize;
+        offset += (long) size * prefetchSlices;
+        return PREFETCH_EXECUTOR.submit(new Callable<Prefetched>() {
+            @Override
+            public Prefetched call() {
+                long begin = System.nanoTime();
+                Pipeline pipeline = client.pipelined();
+                List<Response<List<byte[]>>> responses = new ArrayList<Response<List<byte[]>>>(prefetchSlices);
+                for (int i = 0; i < prefetchSlices; i++) {
+                    long from = start + (long) i * size;
+                    responses.add(pipeline.lrange(key, rangeStart(from, size), rangeEnd(from, size)));
+                }
+                pipeline.sync();
+                
+                List<List<byte[]>> slices = new ArrayList<List<byte[]>>(prefetchSlices);
+                for (Response<List<byte[]>> response : responses) {
+                    slices.add(ordered(response.get()));
+                }
+                return new Prefetched(slices, size, System.nanoTime() - begin);
+            }
+        });
+    }
+    
+    private void awaitPrefetch() {
+        Prefetched result;
+        try {
+            result = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisException("RedisListIterator prefetch interrupted", e);
+        } catch (ExecutionException e) {
+            throw new JedisException("RedisListIterator prefetch failed", e.getCause());
+        } finally {
+            pending = null;
+        }
+        
+        int count = 0;
+        long bytes = 0;
+        int slices = 0;
+        for (List<byte[]> s : result.slices) {
+            if (!s.isEmpty()) {
+                fetched.add(s);
+                slices++;
+                count += s.size();
+                bytes += byteCount(s);
+            }
+            if (s.size() < result.sliceSize) {
+                exhausted = true;
+                break;
+            }
+        }
+        
+        //pipeline中的分片大小相同，按平均每个分片的字节数和耗时调整
+        //超过List末尾的空分片不算，否则会低估每个元素的字节数，下一批过大
+        if (slices > 0) {
+            adjustBatchSize(result.sliceSize, count / slices, bytes / slices, result.nanos / slices);
+        }
+        if (exhausted) {
+            dropSnapshot();
+        }
+    }
+    
+    private long rangeStart(long start, int size) {
+        return mode == Mode.TAIL ? -(start + size) : start;
+    }
+    
+    private long rangeEnd(long start, int size) {
+        return mode == Mode.TAIL ? -(start + 1) : start + size - 1;
+    }
+    
+    /**
+     * TAIL模式下分片从尾部向头部读取，分片内也按从尾部到头部的顺序返回
+     */
+    private List<byte[]> ordered(List<byte[]> items) {
+        if (mode == Mode.TAIL) {
+            Collections.reverse(items);
+        }
+        return items;
+    }
+    
+    /**
+     * 在事务中读取并删除List头部的size个元素
+     */
+    private List<byte[]> consume(int size) {
+        Transaction transaction = client.multi();
+        Response<List<byte[]>> response = transaction.lrange(key, 0, size - 1);
+        transaction.ltrim(key, size, -1);
+        transaction.exec();
+        return response.get();
+    }
+    
+    /**
+     * 用COPY在服务端复制List，要求Redis 6.2及以上，复制的耗时与List长度成正比
+     */
+    private static byte[] snapshot(Jedis client, byte[] key) {
+        byte[] suffix = SafeEncoder.encode(":snapshot:" + UUID.randomUUID());
+        byte[] snapshotKey = Arrays.copyOf(key, key.length + suffix.length);
+        System.arraycopy(suffix, 0, snapshotKey, key.length, suffix.length);
+        
+        client.eval(SNAPSHOT_SCRIPT, Arrays.asList(key, snapshotKey),
+                Collections.singletonList(SafeEncoder.encode(String.valueOf(SNAPSHOT_TTL_SECONDS))));
+        return snapshotKey;
+    }
+    
+    private void dropSnapshot() {
+        if (snapshotKey != null) {
+            byte[] k = snapshotKey;
+            snapshotKey = null;
+            client.del(k);
+        }
+    }
+    
+    /**
+     * 按平均元素大小计算能达到目标字节数的分片大小，lrange耗时过长时按比例缩小
+     * 耗时扣除网络往返的基线后才算作分片本身的开销；耗时主要是网络往返时不小于BATCH_SIZE
+     * 每次最多扩大或缩小一倍，避免个别分片的波动
+     *
+     * @param requested 本次请求的分片大小
+     * @param received 本次读到的元素数
+     * @param bytes 本次读到的字节数
+     * @param nanos lrange耗时
+     */
+    private void adjustBatchSize(int requested, int received, long bytes, long nanos) {
+        if (targetReplyBytes == 0 || received == 0) {
+            return;
+        }
+        
+        double bytesPerItem = Math.max(1.0, (double) bytes / received);
+        long next = (long) (targetReplyBytes / bytesPerItem);
+        minSliceNanos = Math.min(minSliceNanos, nanos);
+        long sliceNanos = nanos - minSliceNanos;
+        if (sliceNanos > MAX_SLICE_NANOS) {
+            long capped = (long) ((double) received * MAX_SLICE_NANOS / sliceNanos);
+            if (sliceNanos * 2 < nanos) {
+                capped = Math.max(capped, BATCH_SIZE);
+            }
+            next = Math.min(next, capped);
+        }
+        
+        //读到末尾的分片不满，只用来缩小
+        if (received < requested) {
+            next = Math.min(next, requested);
+        }
+        
+        next = Math.max(requested / 2, Math.min((long) requested * 2, next));
+        batchSize = (int) Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, next));
+    }
+    
+    private static long byteCount(List<byte[]> items) {
+        long bytes = 0;
+        for (byte[] item : items) {
+            bytes += item.length;
+        }
+        return bytes;
+    }
+    
+    /**
+     * 等待正在进行的预取结束，之后可以在其他地方继续使用Jedis连接
+     * SNAPSHOT模式下删除快照
+     */
+    @Override
+    public void close() {
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (Exception e) {
+                //ignore
+            }
+            pending = null;
+        }
+        exhausted = true;
+        fetched.clear();
+        dropSnapshot();
+    }
+    
     @Override
     public void remove() {
         throw new UnsupportedOperationException();
     }
     
+    public static long forEach(Jedis client, byte[] key, ElementHandler handler) {
+        return forEach(client, key, BATCH_SIZE, Mode.OFFSET, handler);
+    }
+    
+    /**
+     * 按分片读取List，逐个元素回调，不为每个元素分配byte[]，也不为每个分片分配List
+     * 
+     * 直接在Jedis连接的socket上发送LRANGE，把RESP响应读入可复用的缓冲区并原地解析出每个元素的位置，
+     * 回调当前分片的同时下一个分片的LRANGE已经发出
+     * 调用期间Jedis连接不能处于pipeline或事务中，也不能在其他线程中使用
+     * 
+     * @param client
+     * @param key
+     * @param batchSize 每次LRANGE读取的元素数
+     * @param mode 读取模式，不支持CONSUME
+     * @param handler
+     * @return 回调的元素数
+     */
+    public static long forEach(Jedis client, byte[] key, int batchSize, Mode mode, ElementHandler handler) {
+        if (mode == Mode.CONSUME) {
+            throw new IllegalArgumentException("CONSUME mode does not support forEach");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        Client connection = client.getClient();
+        if (connection.isInMulti()) {
+            throw new JedisDataException("Cannot use forEach when in Multi");
+        }
+        
+        byte[] snapshotKey = mode == Mode.SNAPSHOT ? snapshot(client, key) : null;
+        try {
+            connection.connect();
+            SliceReader reader = new SliceReader(connection.getSocket(), snapshotKey == null ? key : snapshotKey,
+                    batchSize, mode == Mode.TAIL);
+            boolean completed = false;
+            try {
+                long count = reader.run(handler);
+                completed = true;
+                return count;
+            } finally {
+                //回调异常时可能还有没读取的响应，断开连接，Jedis下次使用时重连
+                if (!completed) {
+                    connection.disconnect();
+                }
+            }
+        } catch (IOException e) {
+            throw new JedisConnectionException(e);
+        } finally {
+            if (snapshotKey != null) {
+                client.del(snapshotKey);
+            }
+        }
+    }
+    
+    /**
+     * forEach的元素回调
+     */
+    public interface ElementHandler {
+        
+        /**
+         * @param element 元素内容在position和limit之间，只在回调期间有效，不要保留
+         * @return 返回false停止读取
+         */
+        boolean onElement(ByteBuffer element);
+    }
+    
+    /**
+     * 读取模式
+     */
+    public enum Mode {
+        /**
+         * 按下标从头部读取，迭代期间List被修改时元素会重复或遗漏
+         */
+        OFFSET,
+        /**
+         * 创建迭代器时在服务端COPY一份快照，读取快照，迭代结束或者close时删除快照
+         * 返回创建时刻List中的全部元素，每个元素恰好一次，要求Redis 6.2及以上
+         */
+        SNAPSHOT,
+        /**
+         * 用负数下标从尾部向头部读取，返回顺序是从尾部到头部
+         * 只在头部LPUSH/LPOP的List，已经读过的元素不会重复，没有被LPOP的元素不会遗漏，
+         * 迭代期间LPUSH的元素也会读到，List在尾部被修改时没有这个保证
+         */
+        TAIL,
+        /**
+         * 在MULTI中LRANGE+LTRIM，读取并删除头部的元素
+         * 多个迭代器并发读取同一个List时，每个元素只会被其中一个读到；读到不满的分片即结束
+         * 整个分片在读取时就已经删除，迭代器在分片中途被放弃或close时，分片中还没有返回的元素会丢失，
+         * 需要限制丢失的数量时用较小的固定分片；不支持预取，否则丢失的是多个分片
+         */
+        CONSUME
+    }
+    
+    /**
+     * 在socket上发送LRANGE并解析RESP响应
+     * 一个分片的响应完整读入buf，元素的位置记录在offsets/lengths中，稳定后不再分配内存
+     */
+    private static class SliceReader {
+        
+        private static final byte[] CRLF = {'\r', '\n'};
+        
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] key;
+        private final int batchSize;
+        private final boolean tail;
+        
+        private final ByteArrayOutputStream command = new ByteArrayOutputStream(64);
+        
+        //当前响应的数据在buf的[0, limit)，pos是下一个要解析的位置
+        private byte[] buf = new byte[READ_BUFFER_SIZE];
+        //传给handler的buf视图，buf扩容时重建
+        private ByteBuffer view = ByteBuffer.wrap(buf);
+        private int pos;
+        private int limit;
+        
+        //当前分片中每个元素在buf中的位置和长度
+        private int[] offsets;
+        private int[] lengths;
+        
+        SliceReader(Socket socket, byte[] key, int batchSize, boolean tail) throws IOException {
+            this.in = socket.getInputStream();
+            this.out = socket.getOutputStream();
+            this.key = key;
+            this.batchSize = batchSize;
+            this.tail = tail;
+            this.offsets = new int[Math.min(batchSize, 1024)];
+            this.lengths = new int[offsets.length];
+        }
+        
+        long run(ElementHandler handler) throws IOException {
+            long offset = 0;
+            long count = 0;
+            sendLrange(offset);
+            
+            while (true) {
+                int size = readSlice();
+                offset += batchSize;
+                
+                //回调之前发出下一个分片的LRANGE
+                boolean more = size == batchSize;
+                if (more) {
+                    sendLrange(offset);
+                }
+                
+                for (int n = 0; n < size; n++) {
+                    int i = tail ? size - 1 - n : n;
+                    view.clear();
+                    view.position(offsets[i]);
+                    view.limit(offsets[i] + lengths[i]);
+                    count++;
+                    if (!handler.onElement(view)) {
+                        if (more) {
+                            readSlice();
+                        }
+                        return count;
+                    }
+                }
+                
+                if (!more) {
+                    return count;
+                }
+            }
+        }
+        
+        private void sendLrange(long start) throws IOException {
+            long from = tail ? -(start + batchSize) : start;
+            long to = tail ? -(start + 1) : start + batchSize - 1;
+            
+            command.reset();
+            command.write(Protocol.ASTERISK_BYTE);
+            command.write(Protocol.toByteArray(4));
+            command.write(CRLF);
+            writeBulk(Protocol.Command.LRANGE.raw);
+            writeBulk(key);
+            writeBulk(Protocol.toByteArray(from));
+            writeBulk(Protocol.toByteArray(to));
+            command.writeTo(out);
+            out.flush();
+        }
+        
+        private void writeBulk(byte[] arg) throws IOException {
+            command.write(Protocol.DOLLAR_BYTE);
+            command.write(Protocol.toByteArray(arg.length));
+            command.write(CRLF);
+            command.write(arg);
+            command.write(CRLF);
+        }
+        
+        /**
+         * @return 分片的元素数
+         */
+        private int readSlice() throws IOException {
+            //上一个响应已经处理完
+            int remaining = limit - pos;
+            System.arraycopy(buf, pos, buf, 0, remaining);
+            pos = 0;
+            limit = remaining;
+            
+            byte type = readByte();
+            if (type == '-') {
+                throw new JedisDataException(readLine());
+            }
+            if (type != Protocol.ASTERISK_BYTE) {
+                throw new JedisConnectionException("Unknown reply: " + (char) type);
+            }
+            
+            int size = (int) readNumber();
+            if (size <= 0) {
+                return 0;
+            }
+            if (size > offsets.length) {
+                offsets = new int[size];
+                lengths = new int[size];
+            }
+            
+            for (int i = 0; i < size; i++) {
+                if (readByte() != Protocol.DOLLAR_BYTE) {
+                    throw new JedisConnectionException("Unexpected element type in LRANGE reply");
+                }
+                int length = (int) readNumber();
+                fill(length + 2);
+                offsets[i] = pos;
+                lengths[i] = length;
+                pos += length + 2;
+            }
+            return size;
+        }
+        
+        private byte readByte() throws IOException {
+            fill(1);
+            return buf[pos++];
+        }
+        
+        private long readNumber() throws IOException {
+            boolean negative = false;
+            long value = 0;
+            byte b = readByte();
+            if (b == '-') {
+                negative = true;
+                b = readByte();
+            }
+            while (b != '\r') {
+                value = value * 10 + (b - '0');
+                b = readByte();
+            }
+            readByte();
+            return negative ? -value : value;
+        }
+        
+        private String readLine() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            byte b = readByte();
+            while (b != '\r') {
+                sb.append((char) b);
+                b = readByte();
+            }
+            readByte();
+            return sb.toString();
+        }
+        
+        /**
+         * 保证buf中pos之后至少有n个字节，当前响应中已解析元素的位置在扩容后保持不变
+         */
+        private void fill(int n) throws IOException {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+                view = ByteBuffer.wrap(buf);
+            }
+            while (limit - pos < n) {
+                int read = in.read(buf, limit, buf.length - limit);
+                if (read < 0) {
+                    throw new JedisConnectionException("Unexpected end of stream.");
+                }
+                limit += read;
+            }
+        }
+    }
+    
+    private static class Prefetched {
+        private final List<List<byte[]>> slices;
+        private final int sliceSize;
+        private final long nanos;
+        
+        Prefetched(List<List<byte[]>> slices, int sliceSize, long nanos) {
+            this.slices = slices;
+            this.sliceSize = sliceSize;
+            this.nanos = nanos;
+        }
+    }
+
 }
@@ -0,0 +1,152 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Redis List 的Spliterator，用于并行处理较大的List
+ *
+ * 创建时用LLEN确定下标范围，按下标范围二分拆成多个分区，
+ * 每个分区分批lrange读取，遍历时从JedisPool借用自己的连接
+ * 并行度受JedisPool的最大连接数限制
+ *
+ * 遍历期间List不能被修改，否则元素会重复或遗漏，实际元素数也会与estimateSize不一致
+ * 线程不安全，拆分出的各个Spliterator可以在不同线程中使用
+ */
+public class RedisListSpliterator implements Spliterator<byte[]> {
+
+    private static final int BATCH_SIZE = 1000;
+
+    //小于这个大小的分区不再拆分
+    private static final int MIN_PARTITION_SIZE = 4 * BATCH_SIZE;
+
+    private final JedisPool pool;
+    private final byte[] key;
+
+    //下一个要读取的位置
+    private long from;
+    //分区的结束位置，不包含
+    private final long to;
+
+    //当前读取的list分片
+    private List<byte[]> slice = Collections.emptyList();
+    //当前分片中下一个元素的位置
+    private int index;
+
+    public RedisListSpliterator(JedisPool pool, byte[] key) {
+        this(pool, key, 0, llen(pool, key));
+    }
+
+    private RedisListSpliterator(JedisPool pool, byte[] key, long from, long to) {
+        this.pool = pool;
+        this.key = key;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @param pool
+     * @param key
+     * @param parallel 是否并行，并行时在ForkJoinPool.commonPool中处理
+     * @return
+     */
+    public static Stream<byte[]> stream(JedisPool pool, byte[] key, boolean parallel) {
+        return StreamSupport.stream(new RedisListSpliterator(pool, key), parallel);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super byte[]> action) {
+        if (index >= slice.size()) {
+            if (from >= to) {
+                return false;
+            }
+            Jedis client = pool.getResource();
+            try {
+                fetchItems(client);
+            } finally {
+                client.close();
+            }
+            if (index >= slice.size()) {
+                return false;
+            }
+        }
+        action.accept(slice.get(index++));
+        return true;
+    }
+
+    /**
+     * 整个分区使用同一个连接读取
+     */
+    @Override
+    public void forEachRemaining(Consumer<? super byte[]> action) {
+        while (index < slice.size()) {
+            action.accept(slice.get(index++));
+        }
+        if (from >= to) {
+            return;
+        }
+
+        Jedis client = pool.getResource();
+        try {
+            while (from < to) {
+                fetchItems(client);
+                while (index < slice.size()) {
+                    action.accept(slice.get(index++));
+                }
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * 拆出前一半下标范围，已经开始读取的分区不再拆分
+     */
+    @Override
+    public Spliterator<byte[]> trySplit() {
+        if (index < slice.size()) {
+            return null;
+        }
+        long remaining = to - from;
+        if (remaining < MIN_PARTITION_SIZE) {
+            return null;
+        }
+
+        long mid = from + remaining / 2;
+        RedisListSpliterator prefix = new RedisListSpliterator(pool, key, from, mid);
+        from = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return (to - from) + (slice.size() - index);
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL;
+    }
+
+    private void fetchItems(Jedis client) {
+        long end = Math.min(to, from + BATCH_SIZE);
+        slice = client.lrange(key, from, end - 1);
+        index = 0;
+        //List变短了，分区剩余部分已经不存在
+        from = slice.isEmpty() ? to : end;
+    }
+
+    private static long llen(JedisPool pool, byte[] key) {
+        Jedis client = pool.getResource();
+        try {
+            return client.llen(key);
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -1,13 +1,20 @@
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Random;
-import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
 
 /**
  * 
@@ -19,43 +26,74 @@ import java.util.Set;
 public class SampleUtil {
     
     public static <T> List<T> sampleUniformRandom(List<T> population, int k) {
+        return sampleUniformRandom(population, k, new Random());
+    }
+    
+    /**
+     * @param population
+     * @param k
+     * @param random 可以传入ThreadLocalRandom.current()，多线程采样时没有竞争
+     * @return
+     */
+    public static <T> List<T> sampleUniformRandom(List<T> population, int k, Random random) {
         if (population == null) {
             return null;
         }
         
-        int n = population.size();
-        if (k < 0 || k > n) {
+        int[] indices = sampleIndices(population.size(), k, random);
+        if (indices == null) {
             return null;
         }
         
         List<T> result = new ArrayList<T>(k);
-        int setsize = 21;
-        if (k > 5) {
-            setsize += (int)Math.pow(4, Math.ceil(Math.log(k*3)/Math.log(4)));
-        }
-        Random random = new Random();
-        if (n <= setsize) {
-            List<T> pool = new ArrayList<T>(population);
-            for (int i = 0; i < k; i++) {
-                int j = random.nextInt(n-i);
-                result.add(pool.get(j));
-                pool.set(j, pool.get(n-i-1));
-            }
-        } else {
-            Set<Integer> selected = new HashSet<Integer>();
-            for (int i = 0; i < k; i++) {
-                int j = random.nextInt(n);
-                while(selected.contains(j)) {
-                    j = random.nextInt(n);
-                }
-                selected.add(j);
-                result.add(population.get(j));
-            }
+        for (int index : indices) {
+            result.add(population.get(index));
         }
         return result;
     }
     
+    public static int[] sampleUniformRandom(int[] population, int k) {
+        return population == null ? null : select(population, sampleIndices(population.length, k, ThreadLocalRandom.current()));
+    }
+    
+    public static int[] sampleUniformRandom(int[] population, int k, SplittableRandom random) {
+        return population == null ? null : select(population, sampleIndices(population.length, k, random));
+    }
+    
+    public static long[] sampleUniformRandom(long[] population, int k) {
+        return population == null ? null : select(population, sampleIndices(population.length, k, ThreadLocalRandom.current()));
+    }
+    
+    public static long[] sampleUniformRandom(long[] population, int k, SplittableRandom random) {
+        return population == null ? null : select(population, sampleIndices(population.length, k, random));
+    }
+    
+    public static double[] sampleUniformRandom(double[] population, int k) {
+        return population == null ? null : select(population, sampleIndices(population.length, k, ThreadLocalRandom.current()));
+    }
+    
+    public static double[] sampleUniformRandom(double[] population, int k, SplittableRandom random) {
+        return population == null ? null : select(population, sampleIndices(population.length, k, random));
+    }
+    
+    /**
+     * 从[0, n)中不重复地随机选取k个下标
+     * 
+     * @return k < 0 或者 k > n 时返回null
+     */
+    public static int[] sampleIndices(int n, int k, Random random) {
+        return sampleIndices(n, k, indexRandom(random));
+    }
+    
+    public static int[] sampleIndices(int n, int k, SplittableRandom random) {
+        return sampleIndices(n, k, indexRandom(random));
+    }
+    
     public static <T> List<T> sampleReservoir(Iterator<T> iter, int k) {
+        return sampleReservoir(iter, k, new Random());
+    }
+    
+    public static <T> List<T> sampleReservoir(Iterator<T> iter, int k, Random random) {
         if (iter == null) {
             return null;
         }
@@ -65,7 +103,6 @@ public class SampleUtil {
         }
 
         List<T> result = new ArrayList<T>();
-        Random random = new Random();
         int i = 0;
         while (iter.hasNext()) {
             if (i < k) {
@@ -82,8 +119,51 @@ public class SampleUtil {
         }
         return result;
     }
-    
+
+    /**
+     * 跳跃式蓄水池采样（Algorithm L）
+     *
+     * 按几何分布计算下一个被选中的元素之前要跳过多少个元素，随机数的调用次数为O(k log(n/k))
+     * iter实现了SkippableIterator时通过skip跳过，否则逐个调用next
+     */
+    public static <T> List<T> sampleReservoirSkip(Iterator<T> iter, int k) {
+        return sampleReservoirSkip(iter, k, new Random());
+    }
+
+    public static <T> List<T> sampleReservoirSkip(Iterator<T> iter, int k, Random random) {
+        if (iter == null) {
+            return null;
+        }
+
+        if (k <= 0) {
+            return null;
+        }
+
+        List<T> result = new ArrayList<T>(k);
+        while (result.size() < k && iter.hasNext()) {
+            result.add(iter.next());
+        }
+        if (result.size() < k) {
+            return result;
+        }
+
+        double w = Math.exp(Math.log(nextOpenDouble(random)) / k);
+        while (true) {
+            long gap = (long) Math.floor(Math.log(nextOpenDouble(random)) / Math.log1p(-w));
+            if (skip(iter, gap) < gap || !iter.hasNext()) {
+                break;
+            }
+            result.set(random.nextInt(k), iter.next());
+            w *= Math.exp(Math.log(nextOpenDouble(random)) / k);
+        }
+        return result;
+    }
+
     public static <T> List<SampledItem<T>> sampleAES(Iterator<WeightedItem<T>> iter, int k) {
+        return sampleAES(iter, k, new Random());
+    }
+    
+    public static <T> List<SampledItem<T>> sampleAES(Iterator<WeightedItem<T>> iter, int k, Random random) {
         if (iter == null) {
             return null;
         }
@@ -94,7 +174,6 @@ public class SampleUtil {
 
         Queue<SampledItem<T>> minHeap = new PriorityQueue<SampledItem<T>>(k);
 
-        Random random = new Random();
         for (int i = 0; i < k; i++) {
             if (iter.hasNext()) {
                 WeightedItem<T> item = iter.next();
@@ -118,10 +197,385 @@ public class SampleUtil {
         return sampledItemList;
     }
     
+    public static <T> List<SampledItem<T>> sampleAExpJ(Iterator<WeightedItem<T>> iter, int k) {
+        return sampleAExpJ(iter, k, false);
+    }
+
+    /**
+     * 指数跳跃的加权采样（A-ExpJ），结果的分布与sampleAES相同
+     *
+     * 根据当前最小的key计算下一次替换之前要跳过的累计权重，跳过的元素不生成随机数也不计算pow，
+     * 随机数的调用次数为O(k log(n/k))
+     * 内部使用对数形式的key：log(u)/weight，极端权重下不会下溢；堆中的元素原地替换，不分配对象
+     *
+     * @param iter
+     * @param k
+     * @param logSpaceKey 为true时SampledItem的sortedKey是对数形式的key，否则是u^(1/weight)
+     * @return 按key从大到小排序
+     */
+    public static <T> List<SampledItem<T>> sampleAExpJ(Iterator<WeightedItem<T>> iter, int k, boolean logSpaceKey) {
+        return sampleAExpJ(iter, k, logSpaceKey, new Random());
+    }
+
+    public static <T> List<SampledItem<T>> sampleAExpJ(Iterator<WeightedItem<T>> iter, int k, boolean logSpaceKey,
+                                                        Random random) {
+        if (iter == null) {
+            return null;
+        }
+
+        if (k <= 0) {
+            return null;
+        }
+
+        KeyHeap<T> heap = new KeyHeap<T>(k);
+        while (heap.size() < k && iter.hasNext()) {
+            WeightedItem<T> item = iter.next();
+            heap.add(item.getItem(), genLogKey(random, item.getWeight()));
+        }
+
+        if (heap.size() == k) {
+            double threshold = Math.log(nextOpenDouble(random)) / heap.minKey();
+            double accumulated = 0;
+            while (iter.hasNext()) {
+                WeightedItem<T> item = iter.next();
+                double weight = item.getWeight();
+                if (weight <= 0) {
+                    continue;
+                }
+                accumulated += weight;
+                if (accumulated >= threshold) {
+                    //u在(t^weight, 1]之间均匀分布，t是当前最小的key的非对数形式，新的key一定不小于它
+                    double logU = Math.log1p(Math.expm1(weight * heap.minKey()) * nextOpenDouble(random));
+                    heap.replaceMin(item.getItem(), logU / weight);
+                    threshold = Math.log(nextOpenDouble(random)) / heap.minKey();
+                    accumulated = 0;
+                }
+            }
+        }
+        return heap.toSortedList(logSpaceKey);
+    }
+
+    /**
+     * 均匀采样的Collector，可以用于并行流
+     */
+    public static <T> Collector<T, ?, List<T>> toUniformSample(final int k) {
+        return Collector.of(new Supplier<UniformSampler<T>>() {
+            @Override
+            public UniformSampler<T> get() {
+                return new UniformSampler<T>(k);
+            }
+        }, new BiConsumer<UniformSampler<T>, T>() {
+            @Override
+            public void accept(UniformSampler<T> sampler, T item) {
+                sampler.add(item);
+            }
+        }, new BinaryOperator<UniformSampler<T>>() {
+            @Override
+            public UniformSampler<T> apply(UniformSampler<T> a, UniformSampler<T> b) {
+                return a.merge(b);
+            }
+        }, new Function<UniformSampler<T>, List<T>>() {
+            @Override
+            public List<T> apply(UniformSampler<T> sampler) {
+                return sampler.result();
+            }
+        }, Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * 加权采样的Collector，可以用于并行流，结果与sampleAES的分布相同
+     */
+    public static <T> Collector<WeightedItem<T>, ?, List<SampledItem<T>>> toWeightedSample(final int k) {
+        return Collector.of(new Supplier<WeightedSampler<T>>() {
+            @Override
+            public WeightedSampler<T> get() {
+                return new WeightedSampler<T>(k);
+            }
+        }, new BiConsumer<WeightedSampler<T>, WeightedItem<T>>() {
+            @Override
+            public void accept(WeightedSampler<T> sampler, WeightedItem<T> item) {
+                sampler.add(item);
+            }
+        }, new BinaryOperator<WeightedSampler<T>>() {
+            @Override
+            public WeightedSampler<T> apply(WeightedSampler<T> a, WeightedSampler<T> b) {
+                return a.merge(b);
+            }
+        }, new Function<WeightedSampler<T>, List<SampledItem<T>>>() {
+            @Override
+            public List<SampledItem<T>> apply(WeightedSampler<T> sampler) {
+                return sampler.result();
+            }
+        }, Collector.Characteristics.UNORDERED);
+    }
+
+    private static int[] sampleIndices(int n, int k, IndexRandom random) {
+        if (k < 0 || k > n) {
+            return null;
+        }
+        
+        int[] result = new int[k];
+        int setsize = 21;
+        if (k > 5) {
+            setsize += (int)Math.pow(4, Math.ceil(Math.log(k*3)/Math.log(4)));
+        }
+        if (n <= setsize) {
+            int[] pool = new int[n];
+            for (int i = 0; i < n; i++) {
+                pool[i] = i;
+            }
+            for (int i = 0; i < k; i++) {
+                int j = random.nextInt(n-i);
+                result[i] = pool[j];
+                pool[j] = pool[n-i-1];
+            }
+        } else {
+            IntIndexSet selected = new IntIndexSet(k);
+            for (int i = 0; i < k; i++) {
+                int j = random.nextInt(n);
+                while(!selected.add(j)) {
+                    j = random.nextInt(n);
+                }
+                result[i] = j;
+            }
+        }
+        return result;
+    }
+    
+    private static int[] select(int[] population, int[] indices) {
+        if (indices == null) {
+            return null;
+        }
+        int[] result = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            result[i] = population[indices[i]];
+        }
+        return result;
+    }
+    
+    private static long[] select(long[] population, int[] indices) {
+        if (indices == null) {
+            return null;
+        }
+        long[] result = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            result[i] = population[indices[i]];
+        }
+        return result;
+    }
+    
+    private static double[] select(double[] population, int[] indices) {
+        if (indices == null) {
+            return null;
+        }
+        double[] result = new double[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            result[i] = population[indices[i]];
+        }
+        return result;
+    }
+    
+    private static IndexRandom indexRandom(final Random random) {
+        return new IndexRandom() {
+            @Override
+            public int nextInt(int bound) {
+                return random.nextInt(bound);
+            }
+        };
+    }
+    
+    private static IndexRandom indexRandom(final SplittableRandom random) {
+        return new IndexRandom() {
+            @Override
+            public int nextInt(int bound) {
+                return random.nextInt(bound);
+            }
+        };
+    }
+
+    private static double genLogKey(Random random, double weight) {
+        if (weight <= 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return Math.log(nextOpenDouble(random)) / weight;
+    }
+
     private static double genSortedKey(Random random, double weight) {
         return Math.pow(random.nextDouble(), 1.0/weight);
     }
-    
+
+    /**
+     * @return (0, 1]之间的随机数，可以直接取对数
+     */
+    private static double nextOpenDouble(Random random) {
+        return 1.0 - random.nextDouble();
+    }
+
+    /**
+     * @return 实际跳过的元素数，小于n表示iter已经结束
+     */
+    private static <T> long skip(Iterator<T> iter, long n) {
+        if (iter instanceof SkippableIterator) {
+            return ((SkippableIterator<T>) iter).skip(n);
+        }
+        long skipped = 0;
+        while (skipped < n && iter.hasNext()) {
+            iter.next();
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * Random和SplittableRandom没有共同的接口
+     */
+    private interface IndexRandom {
+        int nextInt(int bound);
+    }
+
+    /**
+     * 开放寻址的int集合，用于记录已经选中的下标，不装箱
+     */
+    private static class IntIndexSet {
+        private static final int EMPTY = -1;
+
+        private final int[] table;
+        private final int mask;
+        private final int shift;
+
+        IntIndexSet(int expectedSize) {
+            //装载因子不超过1/2
+            int capacity = Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1;
+            this.table = new int[capacity];
+            this.mask = capacity - 1;
+            this.shift = Integer.numberOfLeadingZeros(capacity) + 1;
+            Arrays.fill(table, EMPTY);
+        }
+
+        /**
+         * @param value 非负数
+         * @return 已经存在时返回false
+         */
+        boolean add(int value) {
+            int i = (value * 0x9E3779B9) >>> shift;
+            while (table[i] != EMPTY) {
+                if (table[i] == value) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = value;
+            return true;
+        }
+    }
+
+    /**
+     * 按key排序的最小堆，key和元素分别保存在数组中，替换堆顶时不分配对象
+     */
+    private static class KeyHeap<T> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] keys;
+        private final Object[] items;
+        private int size;
+
+        KeyHeap(int capacity) {
+            this.keys = new double[capacity];
+            this.items = new Object[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        double minKey() {
+            return keys[0];
+        }
+
+        double key(int i) {
+            return keys[i];
+        }
+
+        @SuppressWarnings("unchecked")
+        T item(int i) {
+            return (T) items[i];
+        }
+
+        void clear() {
+            Arrays.fill(items, 0, size, null);
+            size = 0;
+        }
+
+        /**
+         * 保留key最大的capacity个元素
+         */
+        void offer(T item, double key) {
+            if (size < keys.length) {
+                add(item, key);
+            } else if (key > keys[0]) {
+                replaceMin(item, key);
+            }
+        }
+
+        void add(T item, double key) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                keys[i] = keys[parent];
+                items[i] = items[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            items[i] = item;
+        }
+
+        void replaceMin(T item, double key) {
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (key <= keys[child]) {
+                    break;
+                }
+                keys[i] = keys[child];
+                items[i] = items[child];
+                i = child;
+            }
+            keys[i] = key;
+            items[i] = item;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<SampledItem<T>> toSortedList(boolean logSpaceKey) {
+            List<SampledItem<T>> result = new ArrayList<SampledItem<T>>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(new SampledItem<T>((T) items[i], logSpaceKey ? keys[i] : Math.exp(keys[i])));
+            }
+            Collections.sort(result, Collections.reverseOrder());
+            return result;
+        }
+    }
+
+    /**
+     * 可以跳过元素而不读取的迭代器，例如按下标访问的数据源
+     */
+    public interface SkippableIterator<T> extends Iterator<T> {
+
+        /**
+         * 跳过至多n个元素
+         *
+         * @param n
+         * @return 实际跳过的元素数
+         */
+        long skip(long n);
+    }
+
     public static class WeightedItem<T> {
         private T item;
         private double weight;
@@ -164,4 +618,322 @@ public class SampleUtil {
         }
         
     }
+
+    /**
+     * 可合并的均匀采样器
+     *
+     * 每个元素生成一个均匀分布的随机key，保留key最大的k个，合并时在两边的元素中保留key最大的k个，
+     * 合并结果与在全部数据上采样的分布相同，可以在多个线程或多个节点上分别采样后合并
+     * 线程不安全；元素可序列化时采样器可以序列化后传输
+     */
+    public static class UniformSampler<T> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final KeyHeap<T> heap;
+        private long count;
+
+        public UniformSampler(int k) {
+            if (k <= 0) {
+                throw new IllegalArgumentException("k must be positive");
+            }
+            this.heap = new KeyHeap<T>(k);
+        }
+
+        public void add(T item) {
+            heap.offer(item, ThreadLocalRandom.current().nextDouble());
+            count++;
+        }
+
+        public UniformSampler<T> merge(UniformSampler<T> other) {
+            for (int i = 0; i < other.heap.size(); i++) {
+                heap.offer(other.heap.item(i), other.heap.key(i));
+            }
+            count += other.count;
+            return this;
+        }
+
+        public List<T> result() {
+            List<T> result = new ArrayList<T>(heap.size());
+            for (int i = 0; i < heap.size(); i++) {
+                result.add(heap.item(i));
+            }
+            return result;
+        }
+
+        /**
+         * @return 已经添加的元素数，包括合并进来的
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * 可合并的加权采样器，key与sampleAExpJ相同，取对数形式
+     *
+     * 合并时在两边的元素中保留key最大的k个，合并结果与在全部数据上采样的分布相同
+     * 线程不安全；元素可序列化时采样器可以序列化后传输
+     */
+    public static class WeightedSampler<T> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final KeyHeap<T> heap;
+        private long count;
+
+        public WeightedSampler(int k) {
+            if (k <= 0) {
+                throw new IllegalArgumentException("k must be positive");
+            }
+            this.heap = new KeyHeap<T>(k);
+        }
+
+        public void add(T item, double weight) {
+            double key = weight <= 0 ? Double.NEGATIVE_INFINITY
+                    : Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) / weight;
+            heap.offer(item, key);
+            count++;
+        }
+
+        public void add(WeightedItem<T> item) {
+            add(item.getItem(), item.getWeight());
+        }
+
+        public WeightedSampler<T> merge(WeightedSampler<T> other) {
+            for (int i = 0; i < other.heap.size(); i++) {
+                heap.offer(other.heap.item(i), other.heap.key(i));
+            }
+            count += other.count;
+            return this;
+        }
+
+        public List<SampledItem<T>> result() {
+            return result(false);
+        }
+
+        /**
+         * @param logSpaceKey 为true时SampledItem的sortedKey是对数形式的key，否则是u^(1/weight)
+         * @return 按key从大到小排序
+         */
+        public List<SampledItem<T>> result(boolean logSpaceKey) {
+            return heap.toSortedList(logSpaceKey);
+        }
+
+        /**
+         * @return 已经添加的元素数，包括合并进来的
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * 滑动窗口上的均匀采样，窗口按元素数或者时间计算
+     *
+     * 窗口分成若干个桶，每个桶是一个UniformSampler式的采样，桶移出窗口时直接清空，
+     * 查询时合并窗口内的桶，窗口的边界精度为一个桶
+     * 内存占用为 桶数*k，每个元素的均摊开销为O(1)
+     * 线程不安全
+     */
+    public static class SlidingWindowSampler<T> {
+        private final boolean timeBased;
+        private final int k;
+        //每个桶覆盖的元素数或毫秒数
+        private final long bucketSpan;
+        private final KeyHeap<T>[] buckets;
+
+        //最新的桶的编号，从第一个元素开始计算
+        private long currentBucket;
+        private boolean started;
+        //按元素数计算窗口时，已经添加的元素数
+        private long count;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private SlidingWindowSampler(int k, long window, int bucketCount, boolean timeBased) {
+            if (k <= 0 || bucketCount <= 0 || window < bucketCount) {
+                throw new IllegalArgumentException("invalid sliding window: k=" + k + ", window=" + window
+                        + ", bucketCount=" + bucketCount);
+            }
+            this.timeBased = timeBased;
+            this.k = k;
+            this.bucketSpan = (window + bucketCount - 1) / bucketCount;
+            this.buckets = new KeyHeap[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                buckets[i] = new KeyHeap<T>(k);
+            }
+        }
+
+        /**
+         * @param k
+         * @param windowSize  窗口的元素数
+         * @param bucketCount 窗口分成的桶数
+         */
+        public static <T> SlidingWindowSampler<T> countWindow(int k, long windowSize, int bucketCount) {
+            return new SlidingWindowSampler<T>(k, windowSize, bucketCount, false);
+        }
+
+        /**
+         * @param k
+         * @param windowMillis 窗口的时间长度
+         * @param bucketCount  窗口分成的桶数
+         */
+        public static <T> SlidingWindowSampler<T> timeWindow(int k, long windowMillis, int bucketCount) {
+            return new SlidingWindowSampler<T>(k, windowMillis, bucketCount, true);
+        }
+
+        public void add(T item) {
+            if (timeBased) {
+                add(item, System.currentTimeMillis());
+            } else {
+                offer(item, count / bucketSpan);
+                count++;
+            }
+        }
+
+        /**
+         * 按时间计算窗口时，使用元素自己的时间戳，已经移出窗口的元素被丢弃
+         */
+        public void add(T item, long timestamp) {
+            if (!timeBased) {
+                throw new IllegalStateException("count window does not accept timestamps");
+            }
+            offer(item, Math.floorDiv(timestamp, bucketSpan));
+        }
+
+        public List<T> result() {
+            return timeBased ? result(System.currentTimeMillis()) : merge();
+        }
+
+        /**
+         * @param now 按时间计算窗口时，窗口的结束时间
+         */
+        public List<T> result(long now) {
+            if (!timeBased) {
+                throw new IllegalStateException("count window does not accept timestamps");
+            }
+            advance(Math.floorDiv(now, bucketSpan));
+            return merge();
+        }
+
+        private void offer(T item, long bucket) {
+            advance(bucket);
+            if (bucket <= currentBucket - buckets.length) {
+                return;
+            }
+            buckets[index(bucket)].offer(item, ThreadLocalRandom.current().nextDouble());
+        }
+
+        /**
+         * 清空移出窗口的桶
+         */
+        private void advance(long bucket) {
+            if (!started) {
+                currentBucket = bucket;
+                started = true;
+                return;
+            }
+            if (bucket <= currentBucket) {
+                return;
+            }
+            long expired = Math.min(bucket - currentBucket, buckets.length);
+            for (long b = bucket - expired + 1; b <= bucket; b++) {
+                buckets[index(b)].clear();
+            }
+            currentBucket = bucket;
+        }
+
+        private int index(long bucket) {
+            return (int) Math.floorMod(bucket, (long) buckets.length);
+        }
+
+        private List<T> merge() {
+            KeyHeap<T> merged = new KeyHeap<T>(k);
+            for (KeyHeap<T> bucket : buckets) {
+                for (int i = 0; i < bucket.size(); i++) {
+                    merged.offer(bucket.item(i), bucket.key(i));
+                }
+            }
+            List<T> result = new ArrayList<T>(merged.size());
+            for (int i = 0; i < merged.size(); i++) {
+                result.add(merged.item(i));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 前向衰减（forward decay）的加权采样，元素的权重随时间指数衰减
+     *
+     * 相对于固定的基准时间L，时间戳为t的元素的权重为 weight*exp(λ(t-L))，任意时刻元素之间的相对权重都是 exp(-λ*age)，
+     * 所以不需要随时间更新已有元素的key
+     * key取 log(weight) + λ(t-L) - log(-log(u))，排序与sampleAES的u^(1/weight)相同，不会溢出
+     * 内存占用为k，可以合并基准时间和半衰期相同的采样器
+     * 线程不安全
+     */
+    public static class DecayingSampler<T> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final KeyHeap<T> heap;
+        //每毫秒的衰减率
+        private final double lambda;
+        private final long landmark;
+        private long count;
+
+        public DecayingSampler(int k, long halfLifeMillis) {
+            this(k, halfLifeMillis, System.currentTimeMillis());
+        }
+
+        /**
+         * @param k
+         * @param halfLifeMillis 权重衰减一半的时间
+         * @param landmark       基准时间，需要合并的采样器使用相同的基准时间
+         */
+        public DecayingSampler(int k, long halfLifeMillis, long landmark) {
+            if (k <= 0 || halfLifeMillis <= 0) {
+                throw new IllegalArgumentException("k and halfLifeMillis must be positive");
+            }
+            this.heap = new KeyHeap<T>(k);
+            this.lambda = Math.log(2) / halfLifeMillis;
+            this.landmark = landmark;
+        }
+
+        public void add(T item) {
+            add(item, 1.0, System.currentTimeMillis());
+        }
+
+        public void add(T item, long timestamp) {
+            add(item, 1.0, timestamp);
+        }
+
+        public void add(T item, double weight, long timestamp) {
+            double key = Double.NEGATIVE_INFINITY;
+            if (weight > 0) {
+                double u = ThreadLocalRandom.current().nextDouble();
+                key = Math.log(weight) + lambda * (timestamp - landmark) - Math.log(-Math.log(u));
+            }
+            heap.offer(item, key);
+            count++;
+        }
+
+        public DecayingSampler<T> merge(DecayingSampler<T> other) {
+            if (lambda != other.lambda || landmark != other.landmark) {
+                throw new IllegalArgumentException("cannot merge samplers with different half-life or landmark");
+            }
+            for (int i = 0; i < other.heap.size(); i++) {
+                heap.offer(other.heap.item(i), other.heap.key(i));
+            }
+            count += other.count;
+            return this;
+        }
+
+        /**
+         * @return 按key从大到小排序，sortedKey是对数形式的key
+         */
+        public List<SampledItem<T>> result() {
+            return heap.toSortedList(true);
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
 }
@@ -1,8 +1,40 @@
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.ObjectName;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -11,24 +43,372 @@ public class SimpleCronJobUtil {
 	
 	private static Log LOG = LogFactory.getLog(SimpleCronJobUtil.class);
 	
-	private static final ScheduledExecutorService SERVICE = Executors.newScheduledThreadPool(32);
+	//只负责触发固定周期的任务，任务在JobRunner的执行器中执行
+	private static final ScheduledExecutorService SERVICE = Executors.newScheduledThreadPool(1);
+	
+	//没有指定分组的任务在虚拟线程中执行，Java 21以下使用普通线程
+	private static final Executor DEFAULT_EXECUTOR = newDefaultExecutor();
+	private static final ConcurrentMap<String, ThreadPoolExecutor> GROUP_EXECUTORS = new ConcurrentHashMap<String, ThreadPoolExecutor>();
+	private static final int DEFAULT_GROUP_CONCURRENCY = 4;
+	
+	//所有任务，按名字索引
+	private static final ConcurrentMap<String, JobRunner> JOBS = new ConcurrentHashMap<String, JobRunner>();
+	
+	//同一个触发时间和分散窗口已经注册的任务数，用于在窗口内均匀分散
+	private static final ConcurrentMap<String, AtomicInteger> SPREAD_SLOTS = new ConcurrentHashMap<String, AtomicInteger>();
+	
+	//最近执行时间的本地记录，没有设置时不记录也不补执行
+	private static volatile LastRunStore LAST_RUN_STORE;
+	private static final long LAST_RUN_FLUSH_SECONDS = 5;
+	
+	//时间轮的精度
+	private static final long TICK_MILLIS = 100;
+	//每隔这么久按系统时间重新计算一次剩余延迟，用于发现系统时间的调整
+	private static final long MAX_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
 	
 	private SimpleCronJobUtil() {}
 	
 	public static void putCronJob(Runnable job, long period, TimeUnit timeUnit) {
-	    SERVICE.scheduleAtFixedRate(job, period, period, timeUnit);
-        LOG.info("SimpleCronJobUtil putCronJob [job:" + job.getClass().getName() 
-                + ", initialDelay:" + period + ", period:" + period + ", timeUnit:" + timeUnit + "]");
+		putCronJob(job, period, timeUnit, new JobOptions().overlapPolicy(OverlapPolicy.QUEUE));
+	}
+	
+	/**
+	 * @param job
+	 * @param period
+	 * @param timeUnit
+	 * @param options 不使用zone
+	 * @return 任务的统计
+	 */
+	public static JobMetricsMXBean putCronJob(Runnable job, long period, TimeUnit timeUnit, JobOptions options) {
+		String schedule = "every " + period + " " + timeUnit;
+		long offset = spreadOffset(schedule, options.spreadMillis);
+		long periodNanos = timeUnit.toNanos(period);
+		long initialDelay = periodNanos + TimeUnit.MILLISECONDS.toNanos(offset);
+		FixedRateRunner runner = new FixedRateRunner(job, options, 
+				System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(initialDelay), periodNanos, false, schedule);
+		register(runner);
+		catchUp(runner, options);
+		runner.future = SERVICE.scheduleAtFixedRate(runner.trigger, initialDelay, periodNanos, TimeUnit.NANOSECONDS);
+        LOG.info("SimpleCronJobUtil putCronJob [job:" + runner.getName() 
+                + ", initialDelay:" + TimeUnit.NANOSECONDS.toMillis(initialDelay) + ", period:" + period + ", timeUnit:" + timeUnit 
+                + ", spread:" + offset + "]");
+		return runner;
 	}
 	
 	public static void putCronJob(Runnable job, 
 			int hourOfDay, int minuteOfHour, int secondOfMinite) {
+		putCronJob(job, hourOfDay, minuteOfHour, secondOfMinite, new JobOptions().overlapPolicy(OverlapPolicy.QUEUE));
+	}
+	
+	/**
+	 * @param job
+	 * @param hourOfDay
+	 * @param minuteOfHour
+	 * @param secondOfMinite
+	 * @param options 不使用zone
+	 * @return 任务的统计
+	 */
+	public static JobMetricsMXBean putCronJob(Runnable job, 
+			int hourOfDay, int minuteOfHour, int secondOfMinite, JobOptions options) {
 		long period = 24 * 60 * 60 * 1000;
-		long initialDelay = getDelay(hourOfDay, minuteOfHour, secondOfMinite);
-		SERVICE.scheduleAtFixedRate(job, initialDelay, period, TimeUnit.MILLISECONDS);
-		LOG.info("SimpleCronJobUtil putCronJob [job:" + job.getClass().getName() 
-				+ ", initialDelay:" + initialDelay + ", period:" + period + ", timeUnit:" + TimeUnit.MILLISECONDS + "]");
+		String schedule = "daily at " + hourOfDay + ":" + minuteOfHour + ":" + secondOfMinite;
+		long offset = spreadOffset(schedule, options.spreadMillis);
+		long initialDelay = getDelay(hourOfDay, minuteOfHour, secondOfMinite) + offset;
+		FixedRateRunner runner = new FixedRateRunner(job, options, System.currentTimeMillis() + initialDelay, 
+				TimeUnit.MILLISECONDS.toNanos(period), true, schedule);
+		register(runner);
+		catchUp(runner, options);
+		runner.future = SERVICE.scheduleAtFixedRate(runner.trigger, initialDelay, period, TimeUnit.MILLISECONDS);
+		LOG.info("SimpleCronJobUtil putCronJob [job:" + runner.getName() 
+				+ ", initialDelay:" + initialDelay + ", period:" + period + ", timeUnit:" + TimeUnit.MILLISECONDS 
+				+ ", spread:" + offset + "]");
+		return runner;
+	}
+	
+	/**
+	 * 按cron表达式执行，使用系统默认时区
+	 * 
+	 * @param job
+	 * @param cronExpression 格式见CronExpression
+	 * @return
+	 */
+	public static CronJob putCronJob(Runnable job, String cronExpression) {
+		return putCronJob(job, cronExpression, new JobOptions());
+	}
+	
+	/**
+	 * 按cron表达式执行
+	 * 
+	 * @param job
+	 * @param cronExpression 格式见CronExpression
+	 * @param zone 按这个时区计算触发时间，夏令时切换的处理见CronExpression
+	 * @return
+	 * @throws IllegalArgumentException 表达式不合法
+	 */
+	public static CronJob putCronJob(Runnable job, String cronExpression, ZoneId zone) {
+		return putCronJob(job, cronExpression, new JobOptions().zone(zone));
+	}
+	
+	/**
+	 * 按cron表达式执行
+	 * 
+	 * 所有cron任务注册在同一个分层时间轮中，由一个线程触发，注册和触发的开销与任务数无关
+	 * 触发线程只负责触发，任务在分组的执行器或者虚拟线程中执行，慢任务不会推迟其他任务
+	 * 运行中错过的触发时间（例如进程被挂起）不补执行，重启期间错过的见setLastRunStore
+	 * 任务抛出异常后不再触发，除非设置了isolateExceptions
+	 * 
+	 * @param job
+	 * @param cronExpression 格式见CronExpression
+	 * @param options
+	 * @return
+	 * @throws IllegalArgumentException 表达式不合法
+	 */
+	public static CronJob putCronJob(Runnable job, String cronExpression, JobOptions options) {
+		CronJob cronJob = new CronJob(job, new CronExpression(cronExpression, options.zone), options);
+		cronJob.spreadOffset = spreadOffset(cronJob.runner.getSchedule(), options.spreadMillis);
+		register(cronJob.runner);
+		//计划时间刚过但加上分散偏移还没到的这一次不能跳过
+		cronJob.scheduleAfter(System.currentTimeMillis() - cronJob.spreadOffset);
+		catchUp(cronJob.runner, options);
+		LOG.info("SimpleCronJobUtil putCronJob [job:" + cronJob.runner.getName() 
+				+ ", cron:" + cronExpression + ", zone:" + options.zone + ", group:" + options.group 
+				+ ", overlapPolicy:" + options.overlapPolicy + ", spread:" + cronJob.spreadOffset 
+				+ ", nextFireTime:" + cronJob.getNextFireTime() + "]");
+		return cronJob;
+	}
+	
+	/**
+	 * 设置分组的最大并发执行数，分组第一次使用时默认为4
+	 * 
+	 * @param group
+	 * @param concurrency
+	 */
+	public static void setGroupConcurrency(String group, int concurrency) {
+		if (concurrency <= 0) {
+			throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+		}
+		ThreadPoolExecutor executor = getGroupExecutor(group);
+		synchronized (executor) {
+			if (concurrency > executor.getMaximumPoolSize()) {
+				executor.setMaximumPoolSize(concurrency);
+				executor.setCorePoolSize(concurrency);
+			} else {
+				executor.setCorePoolSize(concurrency);
+				executor.setMaximumPoolSize(concurrency);
+			}
+		}
+		LOG.info("SimpleCronJobUtil setGroupConcurrency [group:" + group + ", concurrency:" + concurrency + "]");
+	}
+	
+	/**
+	 * 启用本地的最近执行时间记录，必须在注册任务之前调用
+	 * 
+	 * 按任务名记录最近一次开始执行的计划时间，定期写入properties文件
+	 * 设置了catchUp的任务注册时，把重启期间错过的执行按catchUpIntervalMillis的间隔依次补上
+	 * 
+	 * @param file 不存在时创建
+	 * @param catchUpIntervalMillis 补执行的最小间隔，所有任务共享
+	 * @throws IOException 读取已有的文件失败
+	 */
+	public static synchronized void setLastRunStore(File file, long catchUpIntervalMillis) throws IOException {
+		final LastRunStore store = new LastRunStore(file, catchUpIntervalMillis);
+		if (LAST_RUN_STORE == null) {
+			//写文件不占用触发线程
+			Executors.newSingleThreadScheduledExecutor(newThreadFactory("SimpleCronJobUtil-last-run"))
+					.scheduleWithFixedDelay(new Runnable() {
+						@Override
+						public void run() {
+							LAST_RUN_STORE.flush();
+						}
+					}, LAST_RUN_FLUSH_SECONDS, LAST_RUN_FLUSH_SECONDS, TimeUnit.SECONDS);
+			Runtime.getRuntime().addShutdownHook(new Thread("SimpleCronJobUtil-last-run-flush") {
+				@Override
+				public void run() {
+					LAST_RUN_STORE.flush();
+				}
+			});
+		}
+		LastRunStore previous = LAST_RUN_STORE;
+		LAST_RUN_STORE = store;
+		if (previous != null) {
+			//替换之后再写入，上次写入之后记录的时间不会丢失
+			previous.flush();
+		}
+		LOG.info("SimpleCronJobUtil setLastRunStore [file:" + file + ", jobs:" + store.lastRuns.size() 
+				+ ", catchUpInterval:" + catchUpIntervalMillis + "]");
+	}
+	
+	/**
+	 * @return 所有任务的名字
+	 */
+	public static Set<String> getJobNames() {
+		return Collections.unmodifiableSet(JOBS.keySet());
+	}
+	
+	/**
+	 * @param name
+	 * @return 任务的统计，不存在时返回null
+	 */
+	public static JobMetricsMXBean getJobMetrics(String name) {
+		return JOBS.get(name);
+	}
+	
+	/**
+	 * 名字重复时加上序号
+	 */
+	private static void register(JobRunner runner) {
+		String name = runner.name;
+		for (int i = 2; JOBS.putIfAbsent(name, runner) != null; i++) {
+			name = runner.name + "-" + i;
+		}
+		runner.name = name;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(runner, objectName(name));
+		} catch (Exception e) {
+			LOG.error("SimpleCronJobUtil register MBean [" + name + "] failed", e);
+		}
+	}
+	
+	private static void unregister(JobRunner runner) {
+		if (!JOBS.remove(runner.name, runner)) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(runner.name));
+		} catch (Exception e) {
+			LOG.error("SimpleCronJobUtil unregister MBean [" + runner.name + "] failed", e);
+		}
+	}
+	
+	/**
+	 * 计算任务在分散窗口内的偏移
+	 * 
+	 * 同一个触发时间的任务按注册顺序取van der Corput序列，任意个数都在窗口内近似均匀分布；
+	 * 整个序列再按主机名和触发时间的hash旋转，不同机器上的同一个任务也会错开
+	 * 主机名、触发时间和注册顺序不变时，重启后偏移不变
+	 */
+	private static long spreadOffset(String schedule, long windowMillis) {
+		if (windowMillis <= 0) {
+			return 0;
+		}
+		String slot = schedule + "/" + windowMillis;
+		AtomicInteger count = SPREAD_SLOTS.get(slot);
+		if (count == null) {
+			AtomicInteger created = new AtomicInteger();
+			count = SPREAD_SLOTS.putIfAbsent(slot, created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		int index = count.getAndIncrement();
+		
+		double rotation = (mix64((HostHolder.HOST_NAME + "/" + slot).hashCode()) >>> 11) * 0x1.0p-53;
+		double fraction = rotation + (Integer.reverse(index) & 0xFFFFFFFFL) * 0x1.0p-32;
+		fraction -= Math.floor(fraction);
+		return (long) (fraction * windowMillis);
+	}
+	
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+	
+	private static class HostHolder {
+		private static final String HOST_NAME = hostName();
+		
+		private static String hostName() {
+			try {
+				return InetAddress.getLocalHost().getHostName();
+			} catch (IOException e) {
+				LOG.warn("SimpleCronJobUtil get host name failed, spread by schedule only", e);
+				return "";
+			}
+		}
+	}
+	
+	/**
+	 * 把重启期间错过的执行按补执行的速率依次触发，只补最近的options.catchUp次
+	 */
+	private static void catchUp(final JobRunner runner, JobOptions options) {
+		LastRunStore store = LAST_RUN_STORE;
+		if (store == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		Long lastRun = store.lastRuns.get(runner.getName());
+		if (lastRun == null) {
+			//第一次注册时记下注册时间，第一次执行之前重启也能发现错过的执行
+			store.record(runner.getName(), now);
+			return;
+		}
+		if (options.catchUpLimit <= 0) {
+			return;
+		}
+		
+		List<Long> missed = runner.missedFireTimes(lastRun, now, options.catchUpLimit);
+		if (!missed.isEmpty()) {
+			runner.catchUpUntil = missed.get(missed.size() - 1);
+		}
+		for (final long scheduledTime : missed) {
+			long delay = store.reserveCatchUpSlot(now) - now;
+			SERVICE.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (runner.getNextFireTime() >= 0) {
+						runner.trigger(scheduledTime);
+					}
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		if (!missed.isEmpty()) {
+			LOG.info("SimpleCronJobUtil catch up missed runs [job:" + runner.getName() + ", lastRun:" + lastRun 
+					+ ", count:" + missed.size() + "]");
+		}
+	}
+	
+	private static ObjectName objectName(String name) throws Exception {
+		return new ObjectName("SimpleCronJobUtil:type=Job,name=" + ObjectName.quote(name));
+	}
+	
+	private static ThreadPoolExecutor getGroupExecutor(final String group) {
+		ThreadPoolExecutor executor = GROUP_EXECUTORS.get(group);
+		if (executor != null) {
+			return executor;
+		}
 		
+		executor = new ThreadPoolExecutor(DEFAULT_GROUP_CONCURRENCY, DEFAULT_GROUP_CONCURRENCY, 
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), newThreadFactory("SimpleCronJobUtil-" + group));
+		executor.allowCoreThreadTimeOut(true);
+		ThreadPoolExecutor existing = GROUP_EXECUTORS.putIfAbsent(group, executor);
+		if (existing != null) {
+			executor.shutdown();
+			return existing;
+		}
+		return executor;
+	}
+	
+	private static Executor newDefaultExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (Exception e) {
+			LOG.info("SimpleCronJobUtil virtual threads unavailable, use platform threads");
+			return Executors.newCachedThreadPool(newThreadFactory("SimpleCronJobUtil-job"));
+		}
+	}
+	
+	private static ThreadFactory newThreadFactory(final String prefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
 	}
 	
 	private static long getDelay(int hourOfDay, int minuteOfHour, int secondOfMinite) {
@@ -47,7 +427,7 @@ public class SimpleCronJobUtil {
 		} else if (hourOfDay == currentHour) {
 			if (minuteOfHour < currentMinute) {
 				later = true;
-			} else if (minuteOfHour == currentSecond) {
+			} else if (minuteOfHour == currentMinute) {
 				if (secondOfMinite < currentSecond) {
 					later = true;
 				}
@@ -65,4 +445,851 @@ public class SimpleCronJobUtil {
 
 	}
 	
+	/**
+	 * 按cron表达式注册的任务
+	 */
+	public static class CronJob {
+		
+		private final Runnable job;
+		private final CronExpression expression;
+		private final JobRunner runner;
+		private final Runnable trigger = new Runnable() {
+			@Override
+			public void run() {
+				fire();
+			}
+		};
+		
+		//加上分散偏移之前的触发时间
+		private long baseFireTime;
+		private volatile long nextFireTime = -1;
+		private volatile long spreadOffset;
+		private volatile boolean cancelled;
+		//当前在时间轮中的节点
+		private TimingWheel.Timeout timeout;
+		
+		private CronJob(Runnable job, CronExpression expression, JobOptions options) {
+			this.job = job;
+			this.expression = expression;
+			this.runner = new JobRunner(job, options) {
+				@Override
+				void stopSchedule() {
+					stop();
+				}
+				
+				@Override
+				public long getNextFireTime() {
+					return nextFireTime;
+				}
+				
+				@Override
+				public String getSchedule() {
+					return "cron " + CronJob.this.expression + " " + CronJob.this.expression.getZone();
+				}
+				
+				@Override
+				List<Long> missedFireTimes(long lastRun, long now, int limit) {
+					return CronJob.this.missedFireTimes(lastRun, now, limit);
+				}
+			};
+		}
+		
+		/**
+		 * 取消后不再触发，已经开始的执行不受影响，统计也一起删除
+		 */
+		public void cancel() {
+			stop();
+			unregister(runner);
+		}
+		
+		public JobMetricsMXBean getMetrics() {
+			return runner;
+		}
+		
+		/**
+		 * 停机很久之后错过的执行可能非常多，不能从lastRun逐个遍历
+		 * 先二分查找从now往前刚好包含limit次执行的起点，每次查找最多计算limit + 1次
+		 */
+		private List<Long> missedFireTimes(long lastRun, long now, int limit) {
+			long offset = spreadOffset;
+			long from = lastRun - offset;
+			long until = now - offset;
+			if (countFireTimes(from, until, limit + 1) > limit) {
+				long hi = until;
+				while (hi - from > 1) {
+					long mid = from + (hi - from) / 2;
+					if (countFireTimes(mid, until, limit) >= limit) {
+						from = mid;
+					} else {
+						hi = mid;
+					}
+				}
+			}
+			
+			List<Long> missed = new ArrayList<Long>();
+			long fireTime = expression.nextFireTime(from);
+			while (fireTime >= 0 && fireTime <= until && missed.size() < limit) {
+				missed.add(fireTime + offset);
+				fireTime = expression.nextFireTime(fireTime);
+			}
+			return missed;
+		}
+		
+		/**
+		 * @return (after, until]内的触发次数，最多数到max
+		 */
+		private int countFireTimes(long after, long until, int max) {
+			int count = 0;
+			long fireTime = expression.nextFireTime(after);
+			while (fireTime >= 0 && fireTime <= until && count < max) {
+				count++;
+				fireTime = expression.nextFireTime(fireTime);
+			}
+			return count;
+		}
+		
+		/**
+		 * 抛出异常后停止时保留统计
+		 */
+		private synchronized void stop() {
+			cancelled = true;
+			nextFireTime = -1;
+			if (timeout != null) {
+				WheelHolder.WHEEL.cancel(timeout);
+				timeout = null;
+			}
+		}
+		
+		public boolean isCancelled() {
+			return cancelled;
+		}
+		
+		/**
+		 * @return 下次触发的时间戳，不会再触发时返回-1
+		 */
+		public long getNextFireTime() {
+			return nextFireTime;
+		}
+		
+		public CronExpression getExpression() {
+			return expression;
+		}
+		
+		/**
+		 * 在时间轮线程中执行
+		 */
+		private synchronized void fire() {
+			timeout = null;
+			if (cancelled) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			if (now < nextFireTime) {
+				//延迟被截断，或者系统时间被往回调了
+				arm(now);
+				return;
+			}
+			
+			runner.trigger(nextFireTime);
+			scheduleAfter(baseFireTime);
+		}
+		
+		private synchronized void scheduleAfter(long after) {
+			if (cancelled) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			long next = expression.nextFireTime(after);
+			if (next >= 0 && next + spreadOffset <= now) {
+				next = expression.nextFireTime(now - spreadOffset);
+			}
+			baseFireTime = next;
+			nextFireTime = next < 0 ? -1 : next + spreadOffset;
+			if (next < 0) {
+				LOG.warn("SimpleCronJobUtil cron job will never fire again [job:" + runner.getName() 
+						+ ", cron:" + expression + "]");
+				return;
+			}
+			arm(now);
+		}
+		
+		private void arm(long now) {
+			long delay = Math.min(nextFireTime - now, MAX_DELAY_MILLIS);
+			timeout = WheelHolder.WHEEL.schedule(trigger, delay);
+		}
+	}
+	
+	/**
+	 * 执行时间超过触发间隔时，下一次触发的处理方式
+	 */
+	public enum OverlapPolicy {
+		//上一次还没有结束时，跳过这次触发
+		SKIP,
+		//上一次结束后再执行，积压的触发依次执行
+		QUEUE,
+		//立即执行，同一个任务可以同时执行多次
+		CONCURRENT
+	}
+	
+	/**
+	 * cron任务的选项
+	 */
+	public static class JobOptions {
+		
+		private ZoneId zone = ZoneId.systemDefault();
+		private String group;
+		private OverlapPolicy overlapPolicy = OverlapPolicy.SKIP;
+		private String name;
+		private boolean isolateExceptions;
+		private long spreadMillis;
+		private int catchUpLimit;
+		
+		public JobOptions zone(ZoneId zone) {
+			this.zone = zone;
+			return this;
+		}
+		
+		/**
+		 * 同一分组的任务共享一个有界的执行器，见setGroupConcurrency
+		 * 不指定时在虚拟线程中执行
+		 */
+		public JobOptions group(String group) {
+			this.group = group;
+			return this;
+		}
+		
+		/**
+		 * 默认为SKIP
+		 */
+		public JobOptions overlapPolicy(OverlapPolicy overlapPolicy) {
+			this.overlapPolicy = overlapPolicy;
+			return this;
+		}
+		
+		/**
+		 * 用于查询统计和JMX，默认为job的类名，重复时加上序号
+		 */
+		public JobOptions name(String name) {
+			this.name = name;
+			return this;
+		}
+		
+		/**
+		 * 为true时任务抛出异常只记录失败，继续按计划触发
+		 * 默认为false，与scheduleAtFixedRate相同，抛出异常后不再触发
+		 */
+		public JobOptions isolateExceptions(boolean isolateExceptions) {
+			this.isolateExceptions = isolateExceptions;
+			return this;
+		}
+		
+		/**
+		 * 触发时间在[计划时间, 计划时间+windowMillis)内确定性地分散，避免多个进程或任务同时触发
+		 * 同一个触发时间的多个任务在窗口内均匀分布，见spreadOffset
+		 */
+		public JobOptions spread(long windowMillis) {
+			this.spreadMillis = windowMillis;
+			return this;
+		}
+		
+		/**
+		 * 设置了setLastRunStore时，注册时补执行重启期间错过的最近maxRuns次，默认不补
+		 */
+		public JobOptions catchUp(int maxRuns) {
+			this.catchUpLimit = maxRuns;
+			return this;
+		}
+	}
+	
+	/**
+	 * 单个任务的统计，注册为JMX MBean SimpleCronJobUtil:type=Job,name=&lt;name&gt;
+	 * Drift为实际开始执行时间与计划触发时间的差，包括在执行器中排队的时间，不包括补执行
+	 * 时间戳不存在时为-1，耗时单位为毫秒
+	 */
+	public interface JobMetricsMXBean {
+		
+		String getName();
+		
+		String getSchedule();
+		
+		long getNextFireTime();
+		
+		long getLastStartTime();
+		
+		String getLastError();
+		
+		int getRunning();
+		
+		long getSuccessCount();
+		
+		long getFailureCount();
+		
+		long getSkippedCount();
+		
+		long getCatchUpCount();
+		
+		long getDriftP50Millis();
+		
+		long getDriftP99Millis();
+		
+		long getDriftMaxMillis();
+		
+		long getRuntimeP50Millis();
+		
+		long getRuntimeP99Millis();
+		
+		long getRuntimeMaxMillis();
+		
+		double getRuntimeMeanMillis();
+	}
+	
+	/**
+	 * 在执行器中执行任务，按OverlapPolicy处理重叠的触发，同时记录任务的统计
+	 * 触发方调用trigger，不会阻塞
+	 */
+	private static abstract class JobRunner implements Runnable, JobMetricsMXBean {
+		
+		private final Runnable job;
+		private final Executor executor;
+		private final OverlapPolicy overlapPolicy;
+		private final boolean isolateExceptions;
+		private volatile String name;
+		
+		//SKIP和QUEUE策略下已经触发但还没有执行完的次数，SKIP策略下最多为1
+		private final AtomicInteger pending = new AtomicInteger();
+		//SKIP和QUEUE策略下等待执行的计划触发时间
+		private final ConcurrentLinkedQueue<Long> scheduledTimes = new ConcurrentLinkedQueue<Long>();
+		
+		private final LatencyHistogram drift = new LatencyHistogram();
+		private final LatencyHistogram runtime = new LatencyHistogram();
+		private final AtomicInteger running = new AtomicInteger();
+		private final AtomicLong successes = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong skipped = new AtomicLong();
+		private final AtomicLong catchUps = new AtomicLong();
+		//计划时间不晚于这个时间的是补执行，正常触发都晚于注册时的catchUp
+		private volatile long catchUpUntil = Long.MIN_VALUE;
+		private volatile long lastStartTime = -1;
+		private volatile String lastError;
+		
+		JobRunner(Runnable job, JobOptions options) {
+			this.job = job;
+			this.executor = options.group == null ? DEFAULT_EXECUTOR : getGroupExecutor(options.group);
+			this.overlapPolicy = options.overlapPolicy;
+			this.isolateExceptions = options.isolateExceptions;
+			this.name = options.name == null ? job.getClass().getName() : options.name;
+		}
+		
+		/**
+		 * 任务抛出异常并且没有设置isolateExceptions时调用
+		 */
+		abstract void stopSchedule();
+		
+		/**
+		 * @return 晚于lastRun、不晚于now的计划触发时间，按时间顺序，最多limit个（最近的）
+		 */
+		abstract List<Long> missedFireTimes(long lastRun, long now, int limit);
+		
+		/**
+		 * @param scheduledTime 计划的触发时间
+		 */
+		void trigger(final long scheduledTime) {
+			switch (overlapPolicy) {
+			case SKIP:
+				if (pending.compareAndSet(0, 1)) {
+					scheduledTimes.offer(scheduledTime);
+					executor.execute(this);
+				} else {
+					skipped.incrementAndGet();
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("SimpleCronJobUtil skip overlapped run [job:" + name + "]");
+					}
+				}
+				break;
+			case QUEUE:
+				scheduledTimes.offer(scheduledTime);
+				if (pending.getAndIncrement() == 0) {
+					executor.execute(this);
+				}
+				break;
+			default:
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						runOnce(scheduledTime);
+					}
+				});
+				break;
+			}
+		}
+		
+		/**
+		 * SKIP和QUEUE策略下同一时刻只有一个线程执行
+		 */
+		@Override
+		public void run() {
+			do {
+				Long scheduledTime = scheduledTimes.poll();
+				if (!runOnce(scheduledTime == null ? System.currentTimeMillis() : scheduledTime)) {
+					scheduledTimes.clear();
+					pending.set(0);
+					return;
+				}
+			} while (pending.decrementAndGet() > 0);
+		}
+		
+		/**
+		 * @return 是否继续触发
+		 */
+		private boolean runOnce(long scheduledTime) {
+			long start = System.currentTimeMillis();
+			long startNanos = System.nanoTime();
+			lastStartTime = start;
+			if (scheduledTime <= catchUpUntil) {
+				//错过的执行可能在几个小时之前，计入drift会一直影响分位数
+				catchUps.incrementAndGet();
+			} else {
+				drift.record(start - scheduledTime);
+			}
+			LastRunStore store = LAST_RUN_STORE;
+			if (store != null) {
+				store.record(name, scheduledTime);
+			}
+			running.incrementAndGet();
+			try {
+				job.run();
+				successes.incrementAndGet();
+				return true;
+			} catch (Throwable e) {
+				failures.incrementAndGet();
+				lastError = e.toString();
+				if (isolateExceptions) {
+					LOG.error("SimpleCronJobUtil job failed [job:" + name + "]", e);
+					return true;
+				}
+				LOG.error("SimpleCronJobUtil job failed, stop schedule [job:" + name + "]", e);
+				stopSchedule();
+				return false;
+			} finally {
+				running.decrementAndGet();
+				runtime.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+			}
+		}
+		
+		@Override
+		public String getName() {
+			return name;
+		}
+		
+		@Override
+		public long getLastStartTime() {
+			return lastStartTime;
+		}
+		
+		@Override
+		public String getLastError() {
+			return lastError;
+		}
+		
+		@Override
+		public int getRunning() {
+			return running.get();
+		}
+		
+		@Override
+		public long getSuccessCount() {
+			return successes.get();
+		}
+		
+		@Override
+		public long getFailureCount() {
+			return failures.get();
+		}
+		
+		@Override
+		public long getSkippedCount() {
+			return skipped.get();
+		}
+		
+		@Override
+		public long getCatchUpCount() {
+			return catchUps.get();
+		}
+		
+		@Override
+		public long getDriftP50Millis() {
+			return drift.getPercentile(50);
+		}
+		
+		@Override
+		public long getDriftP99Millis() {
+			return drift.getPercentile(99);
+		}
+		
+		@Override
+		public long getDriftMaxMillis() {
+			return drift.getMax();
+		}
+		
+		@Override
+		public long getRuntimeP50Millis() {
+			return runtime.getPercentile(50);
+		}
+		
+		@Override
+		public long getRuntimeP99Millis() {
+			return runtime.getPercentile(99);
+		}
+		
+		@Override
+		public long getRuntimeMaxMillis() {
+			return runtime.getMax();
+		}
+		
+		@Override
+		public double getRuntimeMeanMillis() {
+			return runtime.getMean();
+		}
+	}
+	
+	/**
+	 * 固定周期的任务，默认与scheduleAtFixedRate相同，执行不重叠，抛出异常后不再执行
+	 */
+	private static class FixedRateRunner extends JobRunner {
+		
+		private final Runnable trigger = new Runnable() {
+			@Override
+			public void run() {
+				long scheduledTime = firstFireTime + TimeUnit.NANOSECONDS.toMillis(fired * periodNanos);
+				fired++;
+				trigger(scheduledTime);
+			}
+		};
+		private final long firstFireTime;
+		//不足1毫秒的周期换算成毫秒会变成0，所以按纳秒计算
+		private final long periodNanos;
+		//每天在固定时间执行，而不是从注册时开始计算周期
+		private final boolean daily;
+		private final String schedule;
+		//只在SERVICE中修改
+		private volatile long fired;
+		private volatile boolean stopped;
+		private volatile ScheduledFuture<?> future;
+		
+		FixedRateRunner(Runnable job, JobOptions options, long firstFireTime, long periodNanos, boolean daily, String schedule) {
+			super(job, options);
+			this.firstFireTime = firstFireTime;
+			this.periodNanos = periodNanos;
+			this.daily = daily;
+			this.schedule = schedule;
+		}
+		
+		@Override
+		void stopSchedule() {
+			stopped = true;
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+		
+		@Override
+		public long getNextFireTime() {
+			return stopped ? -1 : firstFireTime + TimeUnit.NANOSECONDS.toMillis(fired * periodNanos);
+		}
+		
+		/**
+		 * 原来的计划是从lastRun开始每隔一个周期执行一次，每天执行的任务按一天中的时间对齐
+		 * 只取严格晚于lastRun、不晚于now、并且早于新计划第一次执行的时间，直接计算，不逐个遍历
+		 * 周期可能不足1毫秒，所以按相对lastRun的纳秒计算
+		 */
+		@Override
+		List<Long> missedFireTimes(long lastRun, long now, int limit) {
+			List<Long> missed = new ArrayList<Long>();
+			if (periodNanos <= 0) {
+				return missed;
+			}
+			long anchor = daily ? TimeUnit.MILLISECONDS.toNanos(firstFireTime - lastRun) : 0;
+			long first = 1 + Math.floorMod(anchor - 1, periodNanos);
+			long last = TimeUnit.MILLISECONDS.toNanos(Math.min(now, firstFireTime - 1) - lastRun);
+			if (first > last) {
+				return missed;
+			}
+			long count = (last - first) / periodNanos + 1;
+			for (long i = Math.max(0, count - limit); i < count; i++) {
+				missed.add(lastRun + TimeUnit.NANOSECONDS.toMillis(first + i * periodNanos));
+			}
+			return missed;
+		}
+		
+		@Override
+		public String getSchedule() {
+			return schedule;
+		}
+	}
+	
+	/**
+	 * 任务名到最近一次开始执行的计划时间，保存为properties文件
+	 * 先写临时文件再改名，写入过程中进程退出不会损坏已有的文件
+	 */
+	private static class LastRunStore {
+		
+		private final File file;
+		private final long catchUpIntervalMillis;
+		private final ConcurrentMap<String, Long> lastRuns = new ConcurrentHashMap<String, Long>();
+		//下一次补执行可以使用的时间
+		private final AtomicLong nextCatchUpTime = new AtomicLong();
+		private volatile boolean dirty;
+		
+		LastRunStore(File file, long catchUpIntervalMillis) throws IOException {
+			this.file = file;
+			this.catchUpIntervalMillis = catchUpIntervalMillis;
+			if (!file.exists()) {
+				return;
+			}
+			
+			Properties properties = new Properties();
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			for (String name : properties.stringPropertyNames()) {
+				try {
+					lastRuns.put(name, Long.parseLong(properties.getProperty(name)));
+				} catch (NumberFormatException e) {
+					LOG.warn("SimpleCronJobUtil ignore invalid last run [job:" + name + ", file:" + file + "]");
+				}
+			}
+		}
+		
+		/**
+		 * 只会变大
+		 */
+		void record(String name, long time) {
+			while (true) {
+				Long old = lastRuns.get(name);
+				if (old != null && old >= time) {
+					return;
+				}
+				if (old == null ? lastRuns.putIfAbsent(name, time) == null : lastRuns.replace(name, old, time)) {
+					dirty = true;
+					return;
+				}
+			}
+		}
+		
+		/**
+		 * @return 这次补执行的时间
+		 */
+		long reserveCatchUpSlot(long now) {
+			while (true) {
+				long prev = nextCatchUpTime.get();
+				long slot = Math.max(prev, now);
+				if (nextCatchUpTime.compareAndSet(prev, slot + catchUpIntervalMillis)) {
+					return slot;
+				}
+			}
+		}
+		
+		synchronized void flush() {
+			if (!dirty) {
+				return;
+			}
+			dirty = false;
+			
+			Properties properties = new Properties();
+			for (Map.Entry<String, Long> entry : lastRuns.entrySet()) {
+				properties.setProperty(entry.getKey(), entry.getValue().toString());
+			}
+			File tmp = new File(file.getPath() + ".tmp");
+			try {
+				OutputStream out = new FileOutputStream(tmp);
+				try {
+					properties.store(out, "SimpleCronJobUtil last run times");
+				} finally {
+					out.close();
+				}
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				dirty = true;
+				LOG.error("SimpleCronJobUtil write last run times [" + file + "] failed", e);
+			}
+		}
+	}
+	
+	private static class WheelHolder {
+		private static final TimingWheel WHEEL = new TimingWheel(TICK_MILLIS);
+	}
+	
+	/**
+	 * 分层时间轮，结构与Linux内核经典的定时器相同
+	 * 
+	 * 第0层256个槽，每个槽是一个tick；之上4层各64个槽，每个槽是下一层转一圈的时间
+	 * 每个tick只处理第0层的一个槽，第0层转完一圈时把上一层的一个槽重新分配到下面几层
+	 * 插入、取消和每个tick的开销都是O(1)，与注册的任务数无关
+	 * 
+	 * 按System.nanoTime计时，不受系统时间调整的影响
+	 * 到期的任务在时间轮线程中执行，必须很快返回
+	 */
+	private static class TimingWheel implements Runnable {
+		
+		private static final int ROOT_BITS = 8;
+		private static final int LEVEL_BITS = 6;
+		private static final int LEVELS = 4;
+		private static final int ROOT_MASK = (1 << ROOT_BITS) - 1;
+		private static final int LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+		//更远的任务先放在最高层，重新分配时再计算
+		private static final long MAX_TICKS = (1L << (ROOT_BITS + LEVELS * LEVEL_BITS)) - 1;
+		
+		private final long tickNanos;
+		private final long startNanos = System.nanoTime();
+		
+		//每个槽是一个带哨兵的双向循环链表
+		private final Timeout[] root = newSlots(1 << ROOT_BITS);
+		private final Timeout[][] levels = new Timeout[LEVELS][];
+		
+		//下一个要处理的tick，只在时间轮线程中修改
+		private volatile long nextTick;
+		
+		private TimingWheel(long tickMillis) {
+			this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+			for (int i = 0; i < LEVELS; i++) {
+				levels[i] = newSlots(1 << LEVEL_BITS);
+			}
+			
+			Thread thread = new Thread(this, "SimpleCronJobUtil-timing-wheel");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		
+		synchronized Timeout schedule(Runnable task, long delayMillis) {
+			long elapsed = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0));
+			//向上取整，保证不会提前触发
+			Timeout timeout = new Timeout(task, (elapsed + tickNanos - 1) / tickNanos);
+			add(timeout);
+			return timeout;
+		}
+		
+		synchronized void cancel(Timeout timeout) {
+			if (timeout.next != null) {
+				unlink(timeout);
+			}
+		}
+		
+		@Override
+		public void run() {
+			List<Timeout> expired = new ArrayList<Timeout>();
+			while (true) {
+				long elapsed = System.nanoTime() - startNanos;
+				synchronized (this) {
+					while (nextTick * tickNanos <= elapsed) {
+						tick(expired);
+					}
+				}
+				
+				for (Timeout timeout : expired) {
+					try {
+						timeout.task.run();
+					} catch (Throwable e) {
+						LOG.error("SimpleCronJobUtil timing wheel task failed", e);
+					}
+				}
+				expired.clear();
+				
+				long sleep = nextTick * tickNanos - (System.nanoTime() - startNanos);
+				if (sleep > 0) {
+					LockSupport.parkNanos(sleep);
+				}
+			}
+		}
+		
+		private void tick(List<Timeout> expired) {
+			int index = (int) (nextTick & ROOT_MASK);
+			if (index == 0) {
+				for (int level = 0; level < LEVELS; level++) {
+					int slot = (int) ((nextTick >>> (ROOT_BITS + level * LEVEL_BITS)) & LEVEL_MASK);
+					cascade(levels[level][slot]);
+					if (slot != 0) {
+						break;
+					}
+				}
+			}
+			nextTick++;
+			
+			Timeout head = root[index];
+			while (head.next != head) {
+				Timeout timeout = head.next;
+				unlink(timeout);
+				expired.add(timeout);
+			}
+		}
+		
+		private void cascade(Timeout head) {
+			Timeout timeout = head.next;
+			head.next = head;
+			head.prev = head;
+			while (timeout != head) {
+				Timeout next = timeout.next;
+				add(timeout);
+				timeout = next;
+			}
+		}
+		
+		private void add(Timeout timeout) {
+			long deadline = Math.max(timeout.deadline, nextTick);
+			long ticks = deadline - nextTick;
+			Timeout head;
+			if (ticks <= ROOT_MASK) {
+				head = root[(int) (deadline & ROOT_MASK)];
+			} else {
+				if (ticks > MAX_TICKS) {
+					ticks = MAX_TICKS;
+					deadline = nextTick + MAX_TICKS;
+				}
+				int level = 0;
+				while (ticks >= 1L << (ROOT_BITS + (level + 1) * LEVEL_BITS)) {
+					level++;
+				}
+				head = levels[level][(int) ((deadline >>> (ROOT_BITS + level * LEVEL_BITS)) & LEVEL_MASK)];
+			}
+			
+			timeout.prev = head.prev;
+			timeout.next = head;
+			head.prev.next = timeout;
+			head.prev = timeout;
+		}
+		
+		private static void unlink(Timeout timeout) {
+			timeout.prev.next = timeout.next;
+			timeout.next.prev = timeout.prev;
+			timeout.prev = null;
+			timeout.next = null;
+		}
+		
+		private static Timeout[] newSlots(int size) {
+			Timeout[] slots = new Timeout[size];
+			for (int i = 0; i < size; i++) {
+				Timeout head = new Timeout(null, 0);
+				head.prev = head;
+				head.next = head;
+				slots[i] = head;
+			}
+			return slots;
+		}
+		
+		static class Timeout {
+			private final Runnable task;
+			//到期的tick
+			private final long deadline;
+			private Timeout prev;
+			private Timeout next;
+			
+			private Timeout(Runnable task, long deadline) {
+				this.task = task;
+				this.deadline = deadline;
+			}
+		}
+	}
+	
 }